@@ -12,7 +12,12 @@ class Engine {
     static String[] commands;
 
     static void readFile(File file) throws IOException {
-        GsonStreamApiRead.read(file);
+        try {
+            GsonStreamApiRead.read(file);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Incorrect file");
+            return;
+        }
         runCommand();
     }
 
@@ -39,7 +44,7 @@ class Engine {
                     case "/exit" -> System.exit(0);
                     default -> System.out.println("Invalid command");
                 }
-            } catch (NullPointerException | ArrayIndexOutOfBoundsException e) {
+            } catch (NullPointerException | ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
                 System.out.println("Invalid command");
             }
         }
@@ -2,52 +2,92 @@ package metro;
 
 import java.util.*;
 
+// Stations are kept in a doubly linked chain between two depot nodes, with a name index into the chain,
+// so lookups, removals and inserts at either end don't have to walk the line.
+// The index needs station names to be unique on a line, so adding a name that is already there is refused.
 public class Line {
     public final String name;
-    private final List<Station> line = new LinkedList<>();
+    private final Node head = new Node(new Station("depot"));
+    private final Node tail = new Node(new Station("depot"));
+    private final Map<String, Node> index = new HashMap<>();
+    private int size;
+
+    private static final class Node {
+        private final Station station;
+        private Node prev;
+        private Node next;
+
+        private Node(Station station) {
+            this.station = station;
+        }
+    }
 
     public Line(String name) {
         this.name = name;
-        line.add(new Station("depot"));
-        line.add(new Station("depot"));
+        head.next = tail;
+        tail.prev = head;
     }
 
     public Station getStationByName(String stationName) {
-        Station currentStation = null;
-        for (Station station : line) {
-            if (station.getStationName().equals(stationName)) {
-                currentStation = station;
-            }
-        }
-        return currentStation;
+        Node node = index.get(stationName);
+        return node == null ? null : node.station;
     }
 
     public void add(String stationName) {
-        line.add(line.size() - 1, new Station(stationName));
+        insertBefore(tail, stationName);
     }
 
     public void addHead(String stationName) {
-        line.add(1, new Station(stationName));
+        insertBefore(head.next, stationName);
     }
 
+    // index counts the first depot as 0; positions past the last station add before the closing depot
     public void addStationByIndex(int index, String stationName) {
-        line.add(index, new Station(stationName));
+        if (index < 1) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int position = Math.min(index, size + 1);
+        Node node;
+        if (position <= size / 2) {
+            node = head.next;
+            for (int i = 1; i < position; i++) {
+                node = node.next;
+            }
+        } else {
+            node = tail;
+            for (int i = size + 1; i > position; i--) {
+                node = node.prev;
+            }
+        }
+        insertBefore(node, stationName);
     }
 
     public void remove(String stationName) {
-        Station currentStation = null;
-        for (Station station : line) {
-            if (station.getStationName().equals(stationName)) {
-                currentStation = station;
-            }
+        Node node = index.remove(stationName);
+        if (node != null) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            size--;
         }
-        line.remove(currentStation);
     }
 
     // output all stations in format "previous station - station - next station"
     public void printStations() {
-        for (Station station : line) {
-            System.out.println(station.toString());
+        for (Node node = head; node != null; node = node.next) {
+            System.out.println(node.station.toString());
+        }
+    }
+
+    private void insertBefore(Node next, String stationName) {
+        if (index.containsKey(stationName)) {
+            throw new IllegalArgumentException("Station " + stationName + " is already on the " + name + " line");
         }
+        Node node = new Node(new Station(stationName));
+        node.prev = next.prev;
+        node.next = next;
+        next.prev.next = node;
+        next.prev = node;
+        index.put(stationName, node);
+        size++;
     }
 }
@@ -0,0 +1,169 @@
+package metro;
+
+import java.util.*;
+
+/**
+ * Finds the K fastest loop-free routes between two stations.
+ * <p>
+ * Uses Yen's algorithm. The fastest route comes from Dijkstra's algorithm. Every further route is the cheapest of a
+ * set of candidates: each station of the previous route is tried as a spur, keeping the earlier part of that route,
+ * banning its stations, and banning the next link of every route already found that shares that earlier part. The
+ * candidates are then completed with a restricted Dijkstra search from the spur. This takes at most
+ * {@code K * stations-per-route} searches, and it keeps no more than {@code K} candidates, whatever the number of
+ * paths through the network.
+ */
+class AlternativeRouteFinder {
+    private final RouteGraph graph;
+
+    private final int[]          minutes;
+    private final int[]          predecessor;
+    private final boolean[]      bannedStation;
+    private final IndexedMinHeap queue;
+
+    AlternativeRouteFinder(final RouteGraph graph) {
+        this.graph = graph;
+        this.minutes = new int[graph.size()];
+        this.predecessor = new int[graph.size()];
+        this.bannedStation = new boolean[graph.size()];
+        this.queue = new IndexedMinHeap(graph.size());
+    }
+
+    /**
+     * Find up to {@code count} of the fastest routes between two stations, fastest first.
+     *
+     * @param startId
+     *         id of the station to start from
+     * @param endId
+     *         id of the station to end at
+     * @param count
+     *         number of routes wanted
+     *
+     * @return the routes found, fewer than {@code count} if the network has fewer loop-free routes
+     */
+    List<RoutePath> find(final int startId, final int endId, final int count) {
+        List<RoutePath> routes = new ArrayList<>();
+        var             first  = search(startId, endId, Set.of());
+        if (first == null) {
+            return routes;
+        }
+        routes.add(first);
+
+        PriorityQueue<RoutePath> candidates = new PriorityQueue<>(Comparator.comparingInt(RoutePath::time));
+        Set<List<Integer>>       seen       = new HashSet<>();
+        seen.add(key(first.stations()));
+
+        while (routes.size() < count) {
+            int[] previous = routes.get(routes.size() - 1).stations();
+            for (int spur = 0; spur < previous.length - 1; spur++) {
+                Set<Long> bannedLinks = new HashSet<>();
+                for (var route : routes) {
+                    int[] stations = route.stations();
+                    if (stations.length > spur + 1
+                            && Arrays.equals(stations, 0, spur + 1, previous, 0, spur + 1)) {
+                        bannedLinks.add(link(stations[spur], stations[spur + 1]));
+                    }
+                }
+                Arrays.fill(bannedStation, false);
+                for (int index = 0; index < spur; index++) {
+                    bannedStation[previous[index]] = true;
+                }
+
+                var rest = search(previous[spur], endId, bannedLinks);
+                if (rest != null) {
+                    int[] stations = new int[spur + rest.stations().length];
+                    System.arraycopy(previous, 0, stations, 0, spur);
+                    System.arraycopy(rest.stations(), 0, stations, spur, rest.stations().length);
+                    if (seen.add(key(stations))) {
+                        candidates.add(new RoutePath(stations, time(stations)));
+                    }
+                }
+            }
+            Arrays.fill(bannedStation, false);
+
+            if (candidates.isEmpty()) {
+                break;
+            }
+            routes.add(candidates.poll());
+            trim(candidates, count - routes.size());
+        }
+        return routes;
+    }
+
+    /**
+     * Dijkstra's algorithm avoiding the banned stations and links.
+     */
+    private RoutePath search(final int startId, final int endId, final Set<Long> bannedLinks) {
+        Arrays.fill(minutes, Integer.MAX_VALUE);
+        Arrays.fill(predecessor, -1);
+        queue.clear();
+        minutes[startId] = 0;
+        queue.push(startId, 0);
+
+        while (!queue.isEmpty()) {
+            int id = queue.pop();
+            if (id == endId) {
+                queue.clear();
+                int length = 0;
+                for (int step = endId; step != -1; step = predecessor[step]) {
+                    length++;
+                }
+                int[] path = new int[length];
+                for (int step = endId; step != -1; step = predecessor[step]) {
+                    path[--length] = step;
+                }
+                return new RoutePath(path, minutes[endId]);
+            }
+
+            for (int edge = graph.firstEdge(id); edge < graph.endEdge(id); edge++) {
+                int target = graph.target(edge);
+                if (bannedStation[target] || bannedLinks.contains(link(id, target))) {
+                    continue;
+                }
+                int time = minutes[id] + graph.weight(edge);
+                if (time < minutes[target]) {
+                    minutes[target] = time;
+                    predecessor[target] = id;
+                    queue.push(target, time);
+                }
+            }
+        }
+        return null;
+    }
+
+    private int time(final int[] stations) {
+        int time = 0;
+        for (int index = 1; index < stations.length; index++) {
+            int best = Integer.MAX_VALUE;
+            for (int edge = graph.firstEdge(stations[index - 1]); edge < graph.endEdge(stations[index - 1]); edge++) {
+                if (graph.target(edge) == stations[index]) {
+                    best = Math.min(best, graph.weight(edge));
+                }
+            }
+            time += best;
+        }
+        return time;
+    }
+
+    /**
+     * Drop all but the {@code keep} fastest candidates; the rest can never be among the routes returned.
+     */
+    private static void trim(final PriorityQueue<RoutePath> candidates, final int keep) {
+        if (candidates.size() <= keep) {
+            return;
+        }
+        List<RoutePath> best = new ArrayList<>(keep);
+        for (int index = 0; index < keep; index++) {
+            best.add(candidates.poll());
+        }
+        candidates.clear();
+        candidates.addAll(best);
+    }
+
+    private static long link(final int from, final int to) {
+        return (long) from << 32 | to;
+    }
+
+    private static List<Integer> key(final int[] stations) {
+        return Arrays.stream(stations).boxed().toList();
+    }
+}
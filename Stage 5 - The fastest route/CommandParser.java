@@ -9,7 +9,8 @@ public class CommandParser {
     private final BufferedReader reader;
 
     private final List<String> validCommands = List.of("/append", "/add-head", "/remove", "/output", "/exit",
-            "/connect", "/route", "/fastest-route");
+            "/connect", "/route", "/fastest-route", "/stats",
+            "/alternatives", "/fewest-transfers");
 
     public CommandParser(BufferedReader reader) {
         this.reader = reader;
@@ -18,7 +19,8 @@ public class CommandParser {
     /**
      * Read a line and parse it into command tokens.
      * <p>
-     * Reads a line from the reader, then has it parsed into tokens. Will only return a valid command.
+     * Reads a line from the reader, then has it parsed into tokens. Will only return a valid command. Buffered output
+     * is flushed whenever no further input is ready, before the read blocks.
      *
      * @return Valid command as a list of strings.
      */
@@ -27,6 +29,10 @@ public class CommandParser {
 
         while (!validCommands.contains(command.get(0))) {
             try {
+                if (!reader.ready()) {
+                    // about to wait for the user, so they have to see the answers so far
+                    OutputSink.stdout().flush();
+                }
                 var input = reader.readLine();
                 if (input != null && !input.isEmpty()) {
                     command = parseString(input);
@@ -43,6 +49,19 @@ public class CommandParser {
         return command;
     }
 
+    /**
+     * Check whether another line of input can be read without waiting for it.
+     *
+     * @return true if input is already available for {@link #getCommand()}
+     */
+    boolean hasInput() {
+        try {
+            return reader.ready();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Parse a string into parts.
      * <p>
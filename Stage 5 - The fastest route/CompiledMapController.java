@@ -0,0 +1,195 @@
+package metro;
+
+import java.util.List;
+
+/**
+ * Answers commands against a {@link MappedNetwork}.
+ * <p>
+ * A compiled map is read-only, so only the commands that query the network are supported; commands that would edit it
+ * are refused. {@code /fewest-transfers} is refused as well, as its {@link LineGraph} is built from the stations of a
+ * loaded network.
+ */
+class CompiledMapController {
+    private final MappedNetwork network;
+    private final CommandParser parser;
+
+    CompiledMapController(final MappedNetwork network, final CommandParser parser) {
+        this.network = network;
+        this.parser = parser;
+    }
+
+    void start() {
+        boolean processCommands = true;
+
+        long statsInterval = Long.getLong("metro.stats.interval", 0);
+        if (statsInterval > 0) {
+            QueryStats.dumpEvery(statsInterval);
+        }
+
+        // answers are buffered, so they must reach stdout even when a command throws
+        try {
+            while (processCommands) {
+                var  command   = parser.getCommand();
+                long started   = System.nanoTime();
+                long allocated = QueryStats.allocatedBytes();
+                switch (command.get(0)) {
+                    case "/exit" -> processCommands = false;
+
+                    // /stats prints a summary, /stats json the full counters
+                    case "/stats" -> System.out.println(command.size() > 1 && command.get(1).equals("json")
+                            ? QueryStats.json() : QueryStats.text().stripTrailing());
+
+                    case "/output" -> {
+                        if (command.size() == 2) {
+                            int line = findLine(command.get(1));
+                            if (line >= 0) {
+                                printStations(line);
+                            }
+                        } else {
+                            System.out.println("Invalid format! Command should be: /output LINE");
+                        }
+                    }
+
+                    case "/append", "/add-head", "/remove", "/connect" ->
+                            System.out.println("The compiled map is read-only.");
+
+                    case "/route", "/fastest-route" -> {
+                        if (command.size() == 5) {
+                            int start = findStation(command.get(1), command.get(2));
+                            int end   = findStation(command.get(3), command.get(4));
+                            if (start >= 0 && end >= 0) {
+                                if (command.get(0).equals("/route")) {
+                                    printRoute(new ShortestRouteFinder(network).find(start, end));
+                                } else {
+                                    var route = new FastestRouteFinder(network).find(start, end);
+                                    printRoute(route);
+                                    if (route != null) {
+                                        Controller.printTotal(route.time());
+                                    }
+                                }
+                            }
+                        } else {
+                            System.out.printf("Invalid format! Command should be: " +
+                                    "%s START_LINE START_STATION END_LINE END_STATION%n", command.get(0));
+                        }
+                    }
+
+                    // command(5) is the number of routes wanted
+                    case "/alternatives" -> {
+                        if (command.size() == 6 && command.get(5).matches("\\d{1,3}")
+                                && Integer.parseInt(command.get(5)) > 0) {
+                            int start = findStation(command.get(1), command.get(2));
+                            int end   = findStation(command.get(3), command.get(4));
+                            if (start >= 0 && end >= 0) {
+                                alternatives(start, end, Integer.parseInt(command.get(5)));
+                            }
+                        } else {
+                            System.out.println("Invalid format! Command should be: " +
+                                    "/alternatives START_LINE START_STATION END_LINE END_STATION COUNT");
+                        }
+                    }
+
+                    // the line graph is built from the Station objects of an editable network
+                    case "/fewest-transfers" ->
+                            System.out.println("Routes with the fewest transfers need the JSON map, not a compiled one.");
+
+                    // every command the parser accepts must be answered, even if only to refuse it
+                    default -> System.out.printf("The %s command is not supported for compiled maps.%n", command.get(0));
+                }
+                QueryStats.recordCommand(command.get(0), System.nanoTime() - started,
+                        QueryStats.allocatedBytes() - allocated);
+            }
+        } finally {
+            OutputSink.stdout().flush();
+        }
+    }
+
+    private int findLine(final String lineName) {
+        int line = network.line(lineName);
+        if (line < 0) {
+            System.out.println("Invalid line name: " + lineName);
+        }
+        return line;
+    }
+
+    private int findStation(final String lineName, final String stationName) {
+        int line = findLine(lineName);
+        if (line < 0) {
+            return -1;
+        }
+        int id = network.findStation(line, stationName);
+        if (id < 0) {
+            System.out.printf("No station %s on the %s line.", stationName, lineName);
+        }
+        return id;
+    }
+
+    /**
+     * Output the stations of a line the same way as {@link MetroLine#printStations()}.
+     *
+     * @param line
+     *         index of the line to output
+     */
+    private void printStations(final int line) {
+        int length = network.outputLength(line);
+        if (length == 0) {
+            return;
+        }
+
+        var out = OutputSink.stdout();
+        out.ascii("depot").newLine();
+        for (int index = 0; index < length; index++) {
+            int id = network.outputStation(line, index);
+            out.bytes(network.stationNameBytes(id));
+            for (int edge = network.firstEdge(id); edge < network.endEdge(id); edge++) {
+                if (network.kind(edge) == MetroGraph.TRANSFER) {
+                    int transfer = network.target(edge);
+                    out.ascii(" - ").bytes(network.stationNameBytes(transfer)).ascii(" (")
+                            .bytes(network.lineNameBytes(network.stationLine(transfer))).ascii(")");
+                }
+            }
+            out.newLine();
+        }
+        out.ascii("depot").newLine();
+    }
+
+    /**
+     * Output the fastest loop-free routes between two stations, fastest first.
+     *
+     * @param start
+     *         id of the station to start from
+     * @param end
+     *         id of the station to end at
+     * @param count
+     *         number of routes wanted
+     */
+    private void alternatives(final int start, final int end, final int count) {
+        var routes = new AlternativeRouteFinder(network).find(start, end, count);
+        if (routes.isEmpty()) {
+            System.out.println("No route exists!");
+            return;
+        }
+        for (int index = 0; index < routes.size(); index++) {
+            OutputSink.stdout().ascii("Route ").number(index + 1).ascii(":").newLine();
+            printRoute(routes.get(index));
+            Controller.printTotal(routes.get(index).time());
+        }
+    }
+
+    private void printRoute(final RoutePath route) {
+        if (route == null || route.stations().length == 0) {
+            System.out.println("No route exists!");
+            return;
+        }
+
+        var out  = OutputSink.stdout();
+        int line = network.stationLine(route.stations()[0]);
+        for (int id : route.stations()) {
+            if (network.stationLine(id) != line) {
+                line = network.stationLine(id);
+                out.ascii("Transition to line ").bytes(network.lineNameBytes(line)).newLine();
+            }
+            out.bytes(network.stationNameBytes(id)).newLine();
+        }
+    }
+}
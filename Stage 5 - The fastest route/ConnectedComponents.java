@@ -0,0 +1,217 @@
+package metro;
+
+import java.util.*;
+
+/**
+ * Groups the stations of the network into sets that can reach each other, kept up to date as the network is edited.
+ * <p>
+ * Uses a union-find structure over Station objects that also keeps the member set of each set. Adding a station or a
+ * transfer only merges two sets, and the smaller set is always moved into the larger one.
+ * <p>
+ * A removed station stays in the union-find as a dead entry, so the links through it keep leading to the root of its
+ * set. Its neighbours then search out from each other in turn, one station at a time each, and stop as soon as all of
+ * them have met. The line on either side of a removed station is linked up directly, so this usually takes a step or
+ * two. Only when a search runs out of stations before meeting the others did the removal really cut the set, and only
+ * then is the set rebuilt from its members' links. Once dead entries make up half of the structure, every set is
+ * pointed straight at a live root and the dead entries are dropped.
+ */
+class ConnectedComponents implements NetworkListener {
+    private final IdentityHashMap<Station, Station>      parent  = new IdentityHashMap<>();
+    private final IdentityHashMap<Station, Set<Station>> members = new IdentityHashMap<>();
+    private final Set<Station>                           removed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    ConnectedComponents(final Collection<MetroLine> lines) {
+        List<Station> stations = new ArrayList<>();
+        for (var line : lines) {
+            stations.addAll(line.stations.values());
+        }
+        stations.forEach(this::add);
+        stations.forEach(this::link);
+    }
+
+    /**
+     * Check whether one station can be reached from another.
+     *
+     * @param from
+     *         first station
+     * @param to
+     *         second station
+     *
+     * @return true if both stations are on the network and linked by some route
+     */
+    boolean connected(final Station from, final Station to) {
+        return isLive(from) && isLive(to) && find(from) == find(to);
+    }
+
+    int componentCount() {
+        return members.size();
+    }
+
+    @Override
+    public void networkChanged(final NetworkChange change) {
+        switch (change.kind()) {
+            case APPENDED, ADDED_HEAD -> {
+                add(change.station());
+                link(change.station());
+            }
+            case CONNECTED -> union(change.station(), change.other());
+            case REMOVED -> split(change.station());
+        }
+    }
+
+    private boolean isLive(final Station station) {
+        return parent.containsKey(station) && !removed.contains(station);
+    }
+
+    private void add(final Station station) {
+        parent.put(station, station);
+        Set<Station> set = Collections.newSetFromMap(new IdentityHashMap<>());
+        set.add(station);
+        members.put(station, set);
+    }
+
+    /**
+     * Merge a station with every station it is linked to.
+     */
+    private void link(final Station station) {
+        for (var neighbor : station.getNeighbors()) {
+            union(station, neighbor);
+        }
+    }
+
+    /**
+     * Take a station out of its set, and regroup the rest of that set if the station was all that held it together.
+     */
+    private void split(final Station station) {
+        if (!isLive(station)) {
+            return;
+        }
+        Station      root = find(station);
+        Set<Station> set  = members.get(root);
+        set.remove(station);
+        removed.add(station);
+        if (set.isEmpty()) {
+            members.remove(root);
+        } else if (!stillConnected(liveNeighbors(station))) {
+            members.remove(root);
+            set.forEach(this::add);
+            set.forEach(this::link);
+        }
+
+        if (removed.size() > parent.size() / 2) {
+            compact();
+        }
+    }
+
+    private List<Station> liveNeighbors(final Station station) {
+        Set<Station> neighbors = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (var neighbor : station.getNeighbors()) {
+            if (isLive(neighbor)) {
+                neighbors.add(neighbor);
+            }
+        }
+        return new ArrayList<>(neighbors);
+    }
+
+    /**
+     * Check whether stations can still reach each other, searching out from all of them in turn.
+     * <p>
+     * Each search takes one station per round. When a search reaches a station another one has already seen, the two
+     * go on as one. The check ends as soon as one search is left, or when a search has nothing left to visit, in which
+     * case it has seen everything its start can reach without meeting the others.
+     *
+     * @param starts
+     *         stations that were all in one set
+     *
+     * @return true if they still are
+     */
+    private boolean stillConnected(final List<Station> starts) {
+        int                               count  = starts.size();
+        int[]                             merged = new int[count];
+        List<ArrayDeque<Station>>         queues = new ArrayList<>(count);
+        IdentityHashMap<Station, Integer> seenBy = new IdentityHashMap<>();
+        for (int search = 0; search < count; search++) {
+            merged[search] = search;
+            queues.add(new ArrayDeque<>(List.of(starts.get(search))));
+            seenBy.put(starts.get(search), search);
+        }
+
+        int searches = count;
+        while (searches > 1) {
+            for (int search = 0; search < count && searches > 1; search++) {
+                if (merged[search] != search) {
+                    continue;
+                }
+                var queue = queues.get(search);
+                if (queue.isEmpty()) {
+                    return false;
+                }
+                for (var neighbor : queue.remove().getNeighbors()) {
+                    if (!isLive(neighbor)) {
+                        continue;
+                    }
+                    Integer seen = seenBy.putIfAbsent(neighbor, search);
+                    if (seen == null) {
+                        queue.add(neighbor);
+                        continue;
+                    }
+                    int other = seen;
+                    while (merged[other] != other) {
+                        other = merged[other];
+                    }
+                    if (other != search) {
+                        merged[other] = search;
+                        queue.addAll(queues.get(other));
+                        queues.get(other).clear();
+                        searches--;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Point every live station straight at a live root of its set and forget the removed stations.
+     */
+    private void compact() {
+        parent.clear();
+        List<Set<Station>> sets = new ArrayList<>(members.values());
+        members.clear();
+        for (var set : sets) {
+            Station root = set.iterator().next();
+            set.forEach(station -> parent.put(station, root));
+            members.put(root, set);
+        }
+        removed.clear();
+    }
+
+    private Station find(Station station) {
+        Station root = parent.get(station);
+        while (root != station) {
+            Station grandparent = parent.get(root);
+            parent.put(station, grandparent);
+            station = root;
+            root = grandparent;
+        }
+        return root;
+    }
+
+    private void union(final Station first, final Station second) {
+        if (!isLive(first) || !isLive(second)) {
+            return;
+        }
+        Station large = find(first);
+        Station small = find(second);
+        if (large == small) {
+            return;
+        }
+        if (members.get(large).size() < members.get(small).size()) {
+            Station swap = large;
+            large = small;
+            small = swap;
+        }
+        parent.put(small, large);
+        members.get(large).addAll(members.remove(small));
+    }
+}
@@ -1,117 +1,192 @@
 package metro;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
 
 public class Controller {
     private final HashMap<String, MetroLine> metroLines;
     private final CommandParser              parser;
 
+    private final RouteCache<Optional<List<Station>>> routeCache;
+    private final RouteCache<Optional<Route>>         fastestRouteCache;
+    private final ConnectedComponents                 components;
+
+    private MetroGraph graph;
+    private LineGraph  lineGraph;
+    private long       networkVersion;
+
     Controller(HashMap<String, MetroLine> lines, CommandParser parser) {
         this.metroLines = lines;
         this.parser = parser;
+
+        int cacheSize = Integer.getInteger("metro.cache.size", RouteCache.DEFAULT_CAPACITY);
+        this.routeCache = new RouteCache<>(cacheSize);
+        this.fastestRouteCache = new RouteCache<>(cacheSize);
+        QueryStats.registerCache("/route", routeCache);
+        QueryStats.registerCache("/fastest-route", fastestRouteCache);
+
+        this.components = new ConnectedComponents(lines.values());
+        this.lineGraph = LineGraph.build(lines.values());
+        for (var line : lines.values()) {
+            line.addListener(components);
+            line.addListener(this::networkChanged);
+        }
     }
 
     void start() {
         boolean processCommands = true;
 
-        while (processCommands) {
-            var command = parser.getCommand();
-            switch (command.get(0)) {
-                case "/exit" -> processCommands = false;
-
-                // command(1) is line name to output
-                case "/output" -> {
-                    if (command.size() == 2) {
-                        var lineName = command.get(1);
-                        if (isValidLineName(lineName)) {
-                            metroLines.get(lineName).printStations();
+        long statsInterval = Long.getLong("metro.stats.interval", 0);
+        if (statsInterval > 0) {
+            QueryStats.dumpEvery(statsInterval);
+        }
+
+        // answers are buffered, so they must reach stdout even when a command throws
+        try {
+            while (processCommands) {
+                var  command   = parser.getCommand();
+                long started   = System.nanoTime();
+                long allocated = QueryStats.allocatedBytes();
+                switch (command.get(0)) {
+                    case "/exit" -> processCommands = false;
+
+                    // /stats prints a summary, /stats json the full counters
+                    case "/stats" -> System.out.println(command.size() > 1 && command.get(1).equals("json")
+                            ? QueryStats.json() : QueryStats.text().stripTrailing());
+
+                    // command(1) is line name to output
+                    case "/output" -> {
+                        if (command.size() == 2) {
+                            var lineName = command.get(1);
+                            if (isValidLineName(lineName)) {
+                                metroLines.get(lineName).printStations();
+                            }
+                        } else {
+                            System.out.println("Invalid format! Command should be: /output LINE");
                         }
-                    } else {
-                        System.out.println("Invalid format! Command should be: /output LINE");
                     }
-                }
 
-                // for /append, /add-head and /remove,
-                // command(1) is line name to append station to
-                // command(2) is the station name to append/add/remove
-                case "/append", "/add-head" -> {
-                    if (command.size() == 3 || command.size() == 4) {
-                        var lineName = command.get(1);
-                        var statName = command.get(2);
-                        var time     = command.size() == 4 ? Integer.parseInt(command.get(3)) : 0;
-                        if (isValidLineName(lineName)) {
-                            if (command.get(0).equals("/append")) {
-                                metroLines.get(lineName).append(statName, time);
-                            } else {
-                                metroLines.get(lineName).addHead(statName, time);
+                    // for /append, /add-head and /remove,
+                    // command(1) is line name to append station to
+                    // command(2) is the station name to append/add/remove
+                    case "/append", "/add-head" -> {
+                        if (command.size() == 3 || command.size() == 4) {
+                            var lineName = command.get(1);
+                            var statName = command.get(2);
+                            var time     = command.size() == 4 ? Integer.parseInt(command.get(3)) : 0;
+                            if (isValidLineName(lineName)) {
+                                try {
+                                    if (command.get(0).equals("/append")) {
+                                        metroLines.get(lineName).append(statName, time);
+                                    } else {
+                                        metroLines.get(lineName).addHead(statName, time);
+                                    }
+                                } catch (IllegalArgumentException e) { // the name is already on the line
+                                    System.out.println(e.getMessage());
+                                }
                             }
+                        } else {
+                            System.out.printf("Invalid format! Command should be: %s LINE STATION [TIME]%n",
+                                    command.get(0));
                         }
-                    } else {
-                        System.out.printf("Invalid format! Command should be: %s LINE STATION [TIME]%n",
-                                command.get(0));
                     }
-                }
-                case "/remove" -> {
-                    if (command.size() == 3) {
-                        var lineName = command.get(1);
-                        if (isValidLineName(lineName)) {
-                            metroLines.get(lineName).remove(command.get(2));
+                    case "/remove" -> {
+                        if (command.size() == 3) {
+                            var lineName = command.get(1);
+                            if (isValidLineName(lineName)) {
+                                metroLines.get(lineName).remove(command.get(2));
+                            }
+                        } else {
+                            System.out.println("Invalid format! Command should be: /remove LINE STATION");
                         }
-                    } else {
-                        System.out.println("Invalid format! Command should be: /remove LINE STATION");
                     }
-                }
 
-                // command(1) and command(3) are the line names to connect,
-                // command(2) and command(4) are the station names
-                case "/connect" -> {
-                    if (command.size() == 5) {
-                        var lineFrom = command.get(1);
-                        var lineTo   = command.get(3);
-                        if (isValidLineName(lineFrom) && isValidLineName(lineTo)) {
-                            Station stationFrom = metroLines.get(lineFrom)
-                                    .getStation(command.get(2));
-                            Station stationTo = metroLines.get(lineTo)
-                                    .getStation(command.get(4));
-                            if (stationFrom != null && stationTo != null) {
-                                stationFrom.setTransfers(stationTo);
-                                stationTo.setTransfers(stationFrom);
+                    // command(1) and command(3) are the line names to connect,
+                    // command(2) and command(4) are the station names
+                    case "/connect" -> {
+                        if (command.size() == 5) {
+                            var lineFrom = command.get(1);
+                            var lineTo   = command.get(3);
+                            if (isValidLineName(lineFrom) && isValidLineName(lineTo)) {
+                                Station stationFrom = metroLines.get(lineFrom)
+                                        .getStation(command.get(2));
+                                Station stationTo = metroLines.get(lineTo)
+                                        .getStation(command.get(4));
+                                if (stationFrom != null && stationTo != null) {
+                                    metroLines.get(lineFrom).connect(stationFrom, stationTo);
+                                }
                             }
+                        } else {
+                            System.out.println("Invalid format! Command should be: " +
+                                    "/connect LINE1 STATION1 LINE2 STATION2");
                         }
-                    } else {
-                        System.out.println("Invalid format! Command should be: " +
-                                "/connect LINE1 STATION1 LINE2 STATION2");
                     }
-                }
 
-                // command(1) and command(2) are the starting line and station name (respectively) of the route
-                // to find to command(3) and command(4), the ending line and station name (respectively)
-                case "/route" -> {
-                    if (command.size() == 5) {
-                        Station start = metroLines.get(command.get(1)).getStation(command.get(2));
-                        Station end   = metroLines.get(command.get(3)).getStation(command.get(4));
-                        printRoute(getRoute(start, end, false).getFirst());
-                    } else {
-                        System.out.println("Invalid format! Command should be: " +
-                                "/route START_LINE START_STATION END_LINE END_STATION");
+                    // command(1) and command(2) are the starting line and station name (respectively) of the route
+                    // to find to command(3) and command(4), the ending line and station name (respectively)
+                    case "/route" -> {
+                        if (command.size() == 5) {
+                            Station start = metroLines.get(command.get(1)).getStation(command.get(2));
+                            Station end   = metroLines.get(command.get(3)).getStation(command.get(4));
+                            if (start != null && end != null && !components.connected(start, end)) {
+                                System.out.println("No route exists!");
+                            } else if (start != null && end != null) {
+                                var route = routeCache.get(routeKey(command), networkVersion, key -> {
+                                    var graph = getGraph();
+                                    var path  = new ShortestRouteFinder(graph).find(graph.id(start), graph.id(end));
+                                    return Optional.ofNullable(path == null ? null : graph.toRoute(path).stations());
+                                });
+                                printRoute(route.orElse(null));
+                            }
+                        } else {
+                            System.out.println("Invalid format! Command should be: " +
+                                    "/route START_LINE START_STATION END_LINE END_STATION");
+                        }
                     }
-                }
 
-                case "/fastest-route" -> {
-                    if (command.size() == 5) {
-                        Station start = metroLines.get(command.get(1)).getStation(command.get(2));
-                        Station end   = metroLines.get(command.get(3)).getStation(command.get(4));
-                        var     paths = getRoute(start, end, true);
-                        fastestRoute(paths);
-                    } else {
-                        System.out.println("Invalid format! Command should be: " +
-                                "/fastest-route START_LINE START_STATION END_LINE END_STATION");
+                    case "/fastest-route" -> {
+                        if (command.size() == 5) {
+                            Station start = metroLines.get(command.get(1)).getStation(command.get(2));
+                            Station end   = metroLines.get(command.get(3)).getStation(command.get(4));
+                            fastestRoute(command, start, end);
+                        } else {
+                            System.out.println("Invalid format! Command should be: " +
+                                    "/fastest-route START_LINE START_STATION END_LINE END_STATION");
+                        }
+                    }
+
+                    case "/fewest-transfers" -> {
+                        if (command.size() == 5) {
+                            Station start = metroLines.get(command.get(1)).getStation(command.get(2));
+                            Station end   = metroLines.get(command.get(3)).getStation(command.get(4));
+                            if (start != null && end != null && !components.connected(start, end)) {
+                                System.out.println("No route exists!");
+                            } else if (start != null && end != null) {
+                                printRoute(getLineGraph().find(start, end));
+                            }
+                        } else {
+                            System.out.println("Invalid format! Command should be: " +
+                                    "/fewest-transfers START_LINE START_STATION END_LINE END_STATION");
+                        }
+                    }
+
+                    // command(5) is the number of routes wanted
+                    case "/alternatives" -> {
+                        if (command.size() == 6 && command.get(5).matches("\\d{1,3}")
+                                && Integer.parseInt(command.get(5)) > 0) {
+                            Station start = metroLines.get(command.get(1)).getStation(command.get(2));
+                            Station end   = metroLines.get(command.get(3)).getStation(command.get(4));
+                            alternatives(start, end, Integer.parseInt(command.get(5)));
+                        } else {
+                            System.out.println("Invalid format! Command should be: " +
+                                    "/alternatives START_LINE START_STATION END_LINE END_STATION COUNT");
+                        }
                     }
                 }
+                QueryStats.recordCommand(command.get(0), System.nanoTime() - started,
+                        QueryStats.allocatedBytes() - allocated);
             }
+        } finally {
+            OutputSink.stdout().flush();
         }
     }
 
@@ -132,64 +207,158 @@ public class Controller {
     }
 
     /**
-     * Find a route between two stations using breadth first search
+     * Record that the network has been edited.
+     * <p>
+     * Patches the compiled graph and the line graph where they can follow the edit and drops them otherwise, so only
+     * removals, and new transfers for the line graph, make them be built again. Only edits that can change existing
+     * routes move to a new network version, so adding a station at either end of a line keeps the cached routes.
+     *
+     * @param change
+     *         the edit
+     */
+    private void networkChanged(final NetworkChange change) {
+        if (graph != null && !graph.patch(change)) {
+            graph = null;
+        }
+        if (lineGraph != null && !lineGraph.patch(change)) {
+            lineGraph = null;
+        }
+        if (change.invalidatesRoutes()) {
+            networkVersion++;
+        }
+    }
+
+    private static RouteCache.Key routeKey(final List<String> command) {
+        return new RouteCache.Key(command.get(1), command.get(2), command.get(3), command.get(4));
+    }
+
+    /**
+     * Get the compiled snapshot of the network.
+     * <p>
+     * The snapshot is compiled on first use and again after an edit it couldn't be patched with.
+     *
+     * @return graph of the current network
+     */
+    private MetroGraph getGraph() {
+        if (graph == null) {
+            graph = MetroGraph.compile(metroLines.values());
+        }
+        return graph;
+    }
+
+    /**
+     * Get the line graph of the network.
      * <p>
-     * Takes two stations and attempts to find a route between them. If successful, returns a linked list containing all
-     * the stations on the path. Otherwise, we return null indicating failure to find a route.
+     * The line graph is built when the network is loaded and again on first use after an edit it couldn't be patched
+     * with.
      *
+     * @return line graph of the current network
+     */
+    private LineGraph getLineGraph() {
+        if (lineGraph == null) {
+            lineGraph = LineGraph.build(metroLines.values());
+        }
+        return lineGraph;
+    }
+
+    /**
+     * Output the fastest route between two stations.
+     *
+     * @param command
+     *         route command holding the start and end line and station names
      * @param start
      *         Station object to start the search from
      * @param end
-     *         Station object to begin the search from
-     * @param getAllPaths
-     *         flag for if we find all paths or just the first one
-     *
-     * @return a linked list containing all the stations on the route or null if we couldn't find a route
+     *         Station object to end the search at
      */
-    LinkedList<LinkedList<Station>> getRoute(final Station start, final Station end,
-                                             final boolean getAllPaths) {
-        LinkedList<LinkedList<Station>> paths = new LinkedList<>();
-
-        if (start != null && end != null) {
-            LinkedList<LinkedList<Station>> queue   = new LinkedList<>();
-            HashSet<Station>                visited = new HashSet<>();
-
-            queue.addLast(new LinkedList<>(List.of(start)));
-
-            while (!queue.isEmpty()) {
-                var path = queue.removeFirst(); // get the first path in the queue
-                var node = path.getLast(); // get the last node in the path
-                if (node == end) {  // if the node matches the end, we're done
-                    paths.add(path);
-                    if (getAllPaths) {
-                        continue;
-                    }
-                    return paths;
-                }
+    private void fastestRoute(final List<String> command, final Station start, final Station end) {
+        if (start == null || end == null) {
+            return;
+        }
+        if (!components.connected(start, end)) {
+            System.out.println("No route exists!");
+            return;
+        }
 
-                if (!visited.contains(node)) {  // check if we've already visited this node
-                    for (var neighbor : node.getNeighbors()) {  // add the neighbors of the node to the path
-                        var newPath = new LinkedList<>(path);
-                        newPath.addLast(neighbor);
-                        queue.addLast(newPath); // add the new path with a neighbor to the queue
-                    }
-                    visited.add(node);  // mark the node as visited
-                }
-            }
+        var route = fastestRouteCache.get(routeKey(command), networkVersion, key -> {
+            var graph = getGraph();
+            var path  = new FastestRouteFinder(graph).find(graph.id(start), graph.id(end));
+            return Optional.ofNullable(path == null ? null : graph.toRoute(path));
+        }).orElse(null);
+        if (route == null) {
+            System.out.println("No route exists!");
+            return;
         }
+        printRoute(route.stations());
+        printTotal(route.time());
+    }
 
-        return (getAllPaths && !paths.isEmpty()) ? paths : null;
+    /**
+     * Output the fastest loop-free routes between two stations, fastest first.
+     *
+     * @param start
+     *         Station object to start the search from
+     * @param end
+     *         Station object to end the search at
+     * @param count
+     *         number of routes wanted
+     */
+    private void alternatives(final Station start, final Station end, final int count) {
+        if (start == null || end == null) {
+            return;
+        }
+        if (!components.connected(start, end)) {
+            System.out.println("No route exists!");
+            return;
+        }
+
+        var graph  = getGraph();
+        var routes = new AlternativeRouteFinder(graph).find(graph.id(start), graph.id(end), count);
+        if (routes.isEmpty()) {
+            System.out.println("No route exists!");
+            return;
+        }
+        for (int index = 0; index < routes.size(); index++) {
+            var route = graph.toRoute(routes.get(index));
+            OutputSink.stdout().ascii("Route ").number(index + 1).ascii(":").newLine();
+            printRoute(route.stations());
+            printTotal(route.time());
+        }
     }
 
-    private void fastestRoute(LinkedList<LinkedList<Station>> paths) {
-        LinkedList<Station> shortestPath = new LinkedList<>();
-        int                 shortestTime = Integer.MAX_VALUE;
+    /**
+     * Output the stations of a route.
+     * <p>
+     * Prints each station name on its own line, announcing every change of line before the first station on the new
+     * line.
+     *
+     * @param route
+     *         stations on the route in travel order
+     */
+    static void printRoute(final List<Station> route) {
+        if (route == null || route.isEmpty()) {
+            System.out.println("No route exists!");
+            return;
+        }
 
-        for (var path : paths) {
-            int time = 0;
+        var    out      = OutputSink.stdout();
+        String lineName = route.get(0).getLine();
+        for (var station : route) {
+            if (!lineName.equals(station.getLine())) {
+                lineName = station.getLine();
+                out.ascii("Transition to line ").bytes(station.getLineBytes()).newLine();
+            }
+            out.bytes(station.getNameBytes()).newLine();
+        }
+    }
 
-            for (int index = 1; index < path.size(); index++) {
-                Station curr = path.get(index);
-                Station prev = path.get(index - 1);
-                // if the line name doesn't match, we did a transfer
- 
+    /**
+     * Output the travel time line that follows a fastest route.
+     *
+     * @param minutes
+     *         total travel time of the route
+     */
+    static void printTotal(final int minutes) {
+        OutputSink.stdout().ascii("Total: ").number(minutes).ascii(" minutes in the way").newLine();
+    }
+}
@@ -0,0 +1,82 @@
+package metro;
+
+import java.util.Arrays;
+
+/**
+ * Finds the fastest route between two stations.
+ * <p>
+ * Runs Dijkstra's algorithm over a {@link RouteGraph}, keyed on the minutes travelled so far. Moving to the
+ * next station costs the time of the station being left, moving to the previous station costs the time of the station
+ * being entered and changing lines costs {@link #TRANSFER_TIME} minutes. Each station is settled at most once and only
+ * its predecessor is remembered, so a query does work proportional to the size of the network rather than the number
+ * of possible paths.
+ */
+class FastestRouteFinder {
+    static final int TRANSFER_TIME = 5;
+
+    private final RouteGraph graph;
+
+    FastestRouteFinder(final RouteGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Find the fastest route between two stations.
+     *
+     * @param startId
+     *         id of the station to start the search from
+     * @param endId
+     *         id of the station to end the search at
+     *
+     * @return the fastest route or null if the end can't be reached from the start
+     */
+    RoutePath find(final int startId, final int endId) {
+        int[] minutes     = new int[graph.size()];
+        int[] predecessor = new int[graph.size()];
+        Arrays.fill(minutes, Integer.MAX_VALUE);
+        Arrays.fill(predecessor, -1);
+
+        IndexedMinHeap queue   = new IndexedMinHeap(graph.size());
+        int            settled = 0;
+        int            relaxed = 0;
+        int            peak    = 1;
+        minutes[startId] = 0;
+        queue.push(startId, 0);
+
+        while (!queue.isEmpty()) {
+            int id = queue.pop();
+            settled++;
+            if (id == endId) {
+                QueryStats.recordSearch(settled, relaxed, peak);
+                return buildRoute(predecessor, endId, minutes[endId]);
+            }
+
+            for (int edge = graph.firstEdge(id); edge < graph.endEdge(id); edge++) {
+                relaxed++;
+                int target = graph.target(edge);
+                int time   = minutes[id] + graph.weight(edge);
+                if (time < minutes[target]) {
+                    minutes[target] = time;
+                    predecessor[target] = id;
+                    queue.push(target, time);
+                    peak = Math.max(peak, queue.size());
+                }
+            }
+        }
+
+        QueryStats.recordSearch(settled, relaxed, peak);
+        return null;
+    }
+
+    private RoutePath buildRoute(final int[] predecessor, final int endId, final int time) {
+        int length = 0;
+        for (int id = endId; id != -1; id = predecessor[id]) {
+            length++;
+        }
+        int[] path = new int[length];
+        for (int id = endId; id != -1; id = predecessor[id]) {
+            path[--length] = id;
+        }
+        return new RoutePath(path, time);
+    }
+}
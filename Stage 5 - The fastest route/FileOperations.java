@@ -8,12 +8,22 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 
+/**
+ * Reads map files.
+ * <p>
+ * The file is parsed into a tree once, then every line is built in parallel on the common ForkJoinPool. Each line is
+ * built by its own FileOperations instance, which holds the line name and the transfers of its stations, so the
+ * builders share nothing. Transfers point to stations of other lines, so they are resolved in a single pass once all
+ * lines exist.
+ */
 public class FileOperations {
-    private static final HashMap<Station, HashMap<String, String>> TRANSFERS = new HashMap<>();
+    private final String                                          lineName;
+    private final LinkedHashMap<Station, HashMap<String, String>> transfers = new LinkedHashMap<>();
 
-    private static String lineName;
+    private MetroLine metroLine;
 
-    private FileOperations() {
+    private FileOperations(final String lineName) {
+        this.lineName = lineName;
     }
 
     /**
@@ -52,55 +62,57 @@ public class FileOperations {
      *         Object to read JSON from.
      */
     private static void parseJSONFile(final BufferedReader file, HashMap<String, MetroLine> metroLines) throws JsonSyntaxException {
-        // map to hold each metro line keyed by line name
-        TRANSFERS.clear();
-
         JsonElement fileJsonParseTree = JsonParser.parseReader(file);
 
         if (fileJsonParseTree.isJsonNull()) {     // if we have a JsonNull value, the file read is empty
             return;
         }
 
-        createLines(fileJsonParseTree.getAsJsonObject(), metroLines);
+        List<FileOperations> builders = createLines(fileJsonParseTree.getAsJsonObject());
+        for (var builder : builders) {
+            if (builder.metroLine != null) {
+                metroLines.put(builder.lineName, builder.metroLine);
+            }
+        }
 
         // add any transfer points between the lines. Needs to be done after the lines
         // are created to ensure we have all the necessary station objects created.
-        for (var transferFromStation : TRANSFERS.keySet()) {
-            var transferLines = TRANSFERS.get(transferFromStation);
-            transferLines.forEach((line, station) -> {
+        for (var builder : builders) {
+            builder.transfers.forEach((transferFromStation, transferLines) -> transferLines.forEach((line, station) -> {
                 Station transferToStation = metroLines.get(line).getStation(station);
                 transferFromStation.setTransfers(transferToStation);
-            });
+            }));
         }
     }
 
     /**
-     * Creates the map of lines and stations.
+     * Creates the lines and stations.
      * <p>
-     * Goes through the parse tree of the file processing each line object and returning a map of each line with their
-     * respective stations in the correct order.
+     * Goes through the parse tree of the file building each line object in parallel, one task per line, with each of
+     * the lines holding their respective stations in the correct order.
      *
      * @param fileObject
      *         the JSON object holding the parse tree of the read file
+     *
+     * @return a builder per line holding the line and the transfers still to be resolved, in file order
      */
-    private static void createLines(final JsonObject fileObject, HashMap<String, MetroLine> metroLines) {
-        // iterate over each metro line in the file
-        for (var metroLine : fileObject.entrySet()) {
-            lineName = metroLine.getKey();
+    private static List<FileOperations> createLines(final JsonObject fileObject) {
+        return fileObject.entrySet().parallelStream().map(metroLine -> {
+            var builder  = new FileOperations(metroLine.getKey());
             var stations = metroLine.getValue();
 
-
             if (stations.isJsonObject()) {
-                createLineFromJsonObject(stations.getAsJsonObject(), metroLines);
+                builder.createLineFromJsonObject(stations.getAsJsonObject());
             }
 
             if (stations.isJsonArray()) {
-                createLineFromJsonArray(stations.getAsJsonArray(), metroLines);
+                builder.createLineFromJsonArray(stations.getAsJsonArray());
             }
-        }
+            return builder;
+        }).toList();
     }
 
-    private static void createLineFromJsonObject(final JsonObject lineObject, HashMap<String, MetroLine> metroLines) {
+    private void createLineFromJsonObject(final JsonObject lineObject) {
         // map to hold the stations, sorts by ascending key value
         TreeMap<Integer, Station> stationTreeMap = new TreeMap<>();
 
@@ -128,10 +140,10 @@ public class FileOperations {
         // get the first and last stations and create the line
         var head = stationTreeMap.firstEntry().getValue();
         var tail = stationTreeMap.lastEntry().getValue();
-        metroLines.put(lineName, new MetroLine(lineName, head, tail));
+        metroLine = new MetroLine(lineName, head, tail);
     }
 
-    private static void createLineFromJsonArray(final JsonArray lineArray, HashMap<String, MetroLine> metroLines) {
+    private void createLineFromJsonArray(final JsonArray lineArray) {
         LinkedHashMap<String, Station> stationLinkedHashMap = new LinkedHashMap<>();
         HashMap<String, JsonArray> nextStop = new HashMap<>();
         HashMap<String, JsonArray> prevStop = new HashMap<>();
@@ -161,7 +173,7 @@ public class FileOperations {
             stationLinkedHashMap.get(stationName).setPrev(prev);
         });
 
-        metroLines.put(lineName, new MetroLine(lineName, head, tail, stationLinkedHashMap));
+        metroLine = new MetroLine(lineName, head, tail, stationLinkedHashMap);
     }
 
     /**
@@ -176,7 +188,7 @@ public class FileOperations {
      *
      * @return Station object
      */
-    private static Station createStation(final JsonElement stationElement) {
+    private Station createStation(final JsonElement stationElement) {
         // the element is only a station number and station name; i.e. ("1": "Hammersmith")
         if (stationElement.isJsonPrimitive()) {
             return new Station(stationElement.getAsString(), lineName);
@@ -200,7 +212,7 @@ public class FileOperations {
      * @param station
      *         the station we're processing transfers for
      */
-    private static void addTransferStations(final JsonElement transferElement, final Station station) {
+    private void addTransferStations(final JsonElement transferElement, final Station station) {
         // the element is null, nothing to process
         if (transferElement.isJsonNull()) {
             return;
@@ -230,9 +242,9 @@ public class FileOperations {
         }
 
         // add any lines to the transfer map
-        var transferFromStation = TRANSFERS.get(station);
+        var transferFromStation = transfers.get(station);
         if (transferFromStation == null) {
-            TRANSFERS.put(station, new HashMap<>(transferLineNames));
+            transfers.put(station, new HashMap<>(transferLineNames));
         } else {
             transferFromStation.putAll(transferLineNames);
         }
@@ -0,0 +1,91 @@
+package metro;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets.
+ * <p>
+ * Latencies below {@value #SUB_BUCKETS} nanoseconds get a bucket each. Above that every power of two range is split
+ * into {@value #SUB_BUCKETS} buckets of equal width, so a bucket is never wider than 1/{@value #SUB_BUCKETS} of the
+ * latencies it holds and a percentile reported as the middle of its bucket is off by at most about 3%. Recording is a
+ * couple of atomic increments and can be done from any number of threads.
+ */
+class LatencyHistogram {
+    private static final int SUB_BITS    = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS     = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts     = new AtomicLongArray(BUCKETS);
+    private final LongAdder       totalNanos = new LongAdder();
+
+    /**
+     * Record one latency.
+     *
+     * @param nanos
+     *         latency in nanoseconds
+     */
+    void record(final long nanos) {
+        long clamped = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(clamped));
+        totalNanos.add(clamped);
+    }
+
+    /**
+     * Bucket of a latency: the power of two range it falls in and which of its equal parts.
+     */
+    private static int bucket(final long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int part     = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + part;
+    }
+
+    /**
+     * Middle of the latencies a bucket holds.
+     */
+    private static long midpoint(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int  shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + ((1L << shift) - 1) / 2;
+    }
+
+    long count() {
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            count += counts.get(bucket);
+        }
+        return count;
+    }
+
+    double meanNanos() {
+        long count = count();
+        return count == 0 ? 0 : (double) totalNanos.sum() / count;
+    }
+
+    /**
+     * Latency below which the given fraction of the recorded latencies lie.
+     *
+     * @param fraction
+     *         fraction of the latencies, between 0 and 1
+     *
+     * @return middle of the bucket holding that fraction in nanoseconds, 0 when nothing was recorded
+     */
+    long percentileNanos(final double fraction) {
+        long count = count();
+        long rank  = (long) Math.ceil(fraction * count);
+        long seen  = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank && seen > 0) {
+                return midpoint(bucket);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,254 @@
+package metro;
+
+import java.util.*;
+
+/**
+ * Condensed view of the network for routes with the fewest changes of line.
+ * <p>
+ * Every node is a piece of a line: stations of one line that reach each other over the line's own links. A line is
+ * usually one piece, but removing a station can cut it in two. The edges are the transfers between stations of two
+ * pieces, kept in compressed sparse row form like {@link MetroGraph}. A transfer to another line costs one change; a
+ * transfer between two pieces of the same line costs none, as the route printed for it announces no new line. A 0-1
+ * breadth first search over these few nodes finds the fewest changes, and only the winning itinerary is expanded back
+ * into stations.
+ * <p>
+ * Like {@link MetroGraph} this is a snapshot. Stations added at either end of a line can be {@link #patch patched} in;
+ * build a new one after other edits.
+ */
+class LineGraph {
+    private final IdentityHashMap<Station, Integer> pieceOf;
+
+    private final int[]     offsets;
+    private final int[]     targets;
+    private final int[]     changes;
+    private final Station[] exits;
+    private final Station[] entries;
+
+    private LineGraph(final IdentityHashMap<Station, Integer> pieceOf, final int[] offsets, final int[] targets,
+                      final int[] changes, final Station[] exits, final Station[] entries) {
+        this.pieceOf = pieceOf;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.changes = changes;
+        this.exits = exits;
+        this.entries = entries;
+    }
+
+    /**
+     * Build the line graph of the network.
+     * <p>
+     * Links to stations that are no longer on any line are dropped.
+     *
+     * @param lines
+     *         lines of the network
+     *
+     * @return the line graph
+     */
+    static LineGraph build(final Collection<MetroLine> lines) {
+        IdentityHashMap<Station, Integer> pieceOf = new IdentityHashMap<>();
+        for (var line : lines) {
+            for (var station : line.stations.values()) {
+                pieceOf.put(station, -1);
+            }
+        }
+
+        List<List<Station>> pieces = new ArrayList<>();
+        for (var line : lines) {
+            for (var station : line.stations.values()) {
+                if (pieceOf.get(station) < 0) {
+                    pieces.add(collectPiece(station, pieces.size(), pieceOf));
+                }
+            }
+        }
+
+        // transfers are grouped by the piece they leave, so a counting pass sizes the arrays first
+        int[] offsets = new int[pieces.size() + 1];
+        for (int piece = 0; piece < pieces.size(); piece++) {
+            int count = 0;
+            for (var station : pieces.get(piece)) {
+                count += (int) station.getTransfers().stream().filter(pieceOf::containsKey).count();
+            }
+            offsets[piece + 1] = offsets[piece] + count;
+        }
+
+        int[]     targets = new int[offsets[pieces.size()]];
+        int[]     changes = new int[targets.length];
+        Station[] exits   = new Station[targets.length];
+        Station[] entries = new Station[targets.length];
+        for (int piece = 0; piece < pieces.size(); piece++) {
+            int edge = offsets[piece];
+            for (var station : pieces.get(piece)) {
+                for (var transfer : station.getTransfers()) {
+                    if (pieceOf.containsKey(transfer)) {
+                        targets[edge] = pieceOf.get(transfer);
+                        changes[edge] = station.getLine().equals(transfer.getLine()) ? 0 : 1;
+                        exits[edge] = station;
+                        entries[edge++] = transfer;
+                    }
+                }
+            }
+        }
+
+        return new LineGraph(pieceOf, offsets, targets, changes, exits, entries);
+    }
+
+    /**
+     * Apply an edit of the lines to the line graph in place.
+     * <p>
+     * A station added at either end of a line joins the piece of its neighbour. It has no transfers yet, so no edge
+     * changes. Removals and new transfers change the pieces or the edges between them and can't be patched.
+     *
+     * @param change
+     *         the edit, already applied to the lines
+     *
+     * @return true if the line graph now matches the lines, false if it has to be built again
+     */
+    boolean patch(final NetworkChange change) {
+        boolean addedAtEnd = change.kind() == NetworkChange.Kind.APPENDED
+                || change.kind() == NetworkChange.Kind.ADDED_HEAD;
+        Integer piece = pieceOf.get(change.other());
+        if (!addedAtEnd || piece == null || pieceOf.containsKey(change.station())) {
+            return false;
+        }
+        pieceOf.put(change.station(), piece);
+        return true;
+    }
+
+    /**
+     * Number of line pieces in the graph.
+     *
+     * @return piece count
+     */
+    int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Find a route with the fewest changes of line between two stations.
+     * <p>
+     * Of the itineraries with the fewest changes, the one the search reaches first is expanded; each part of it
+     * between two transfers takes the fewest stops along its line.
+     *
+     * @param start
+     *         station to start the route from
+     * @param end
+     *         station to end the route at
+     *
+     * @return stations of the route in travel order, or null if the end can't be reached from the start
+     */
+    List<Station> find(final Station start, final Station end) {
+        if (!pieceOf.containsKey(start) || !pieceOf.containsKey(end)) {
+            return null;
+        }
+        int   source   = pieceOf.get(start);
+        int   target   = pieceOf.get(end);
+        int[] distance = new int[size()];
+        int[] via      = new int[size()];
+        Arrays.fill(distance, Integer.MAX_VALUE);
+        Arrays.fill(via, -1);
+
+        ArrayDeque<Integer> deque   = new ArrayDeque<>();
+        int                 settled = 0;
+        int                 relaxed = 0;
+        int                 peak    = 1;
+        distance[source] = 0;
+        deque.add(source);
+        while (!deque.isEmpty()) {
+            int piece = deque.pollFirst();
+            settled++;
+            if (piece == target) {
+                break;
+            }
+            for (int edge = offsets[piece]; edge < offsets[piece + 1]; edge++) {
+                relaxed++;
+                int next = targets[edge];
+                int cost = distance[piece] + changes[edge];
+                if (cost < distance[next]) {
+                    distance[next] = cost;
+                    via[next] = edge;
+                    if (changes[edge] == 0) {
+                        deque.addFirst(next);
+                    } else {
+                        deque.addLast(next);
+                    }
+                    peak = Math.max(peak, deque.size());
+                }
+            }
+        }
+        QueryStats.recordSearch(settled, relaxed, peak);
+        if (distance[target] == Integer.MAX_VALUE) {
+            return null;
+        }
+
+        // walk the itinerary back from the end, one line piece at a time
+        LinkedList<Station> route = new LinkedList<>();
+        Station             exit  = end;
+        for (int piece = target; via[piece] >= 0; piece = pieceOf.get(exit)) {
+            int edge = via[piece];
+            route.addAll(0, alongLine(entries[edge], exit));
+            exit = exits[edge];
+        }
+        route.addAll(0, alongLine(start, exit));
+        return route;
+    }
+
+    /**
+     * Gather the piece of line holding a station, numbering its stations.
+     */
+    private static List<Station> collectPiece(final Station first, final int piece,
+                                              final IdentityHashMap<Station, Integer> pieceOf) {
+        List<Station>       members = new ArrayList<>();
+        ArrayDeque<Station> queue   = new ArrayDeque<>();
+        pieceOf.put(first, piece);
+        queue.add(first);
+        while (!queue.isEmpty()) {
+            Station station = queue.remove();
+            members.add(station);
+            for (var neighbor : lineNeighbors(station)) {
+                if (pieceOf.containsKey(neighbor) && pieceOf.get(neighbor) < 0) {
+                    pieceOf.put(neighbor, piece);
+                    queue.add(neighbor);
+                }
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Fewest stops between two stations of one piece, over the line's own links.
+     */
+    private List<Station> alongLine(final Station from, final Station to) {
+        IdentityHashMap<Station, Station> predecessor = new IdentityHashMap<>();
+        ArrayDeque<Station>               queue       = new ArrayDeque<>();
+        predecessor.put(from, from);
+        queue.add(from);
+        while (!queue.isEmpty() && !predecessor.containsKey(to)) {
+            Station station = queue.remove();
+            for (var neighbor : lineNeighbors(station)) {
+                if (pieceOf.containsKey(neighbor) && !predecessor.containsKey(neighbor)) {
+                    predecessor.put(neighbor, station);
+                    queue.add(neighbor);
+                }
+            }
+        }
+
+        LinkedList<Station> stations = new LinkedList<>();
+        for (Station step = to; step != from; step = predecessor.get(step)) {
+            stations.addFirst(step);
+        }
+        stations.addFirst(from);
+        return stations;
+    }
+
+    private static List<Station> lineNeighbors(final Station station) {
+        List<Station> neighbors = new ArrayList<>();
+        if (station.getPrev() != null) {
+            neighbors.addAll(station.getPrev());
+        }
+        if (station.getNext() != null) {
+            neighbors.addAll(station.getNext());
+        }
+        neighbors.removeIf(Objects::isNull);
+        return neighbors;
+    }
+}
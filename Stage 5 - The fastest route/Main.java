@@ -1,15 +1,26 @@
 package metro;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Path;
 
 public class Main {
     public static void main(String[] args) {
+        OutputSink.install();
         var reader = new BufferedReader(new InputStreamReader(System.in));
         if (args.length == 0) {
             System.out.println("Please provide a filename to read from.");
             return;
         }
+        if (args[0].equals("compile")) {
+            compile(args);
+            return;
+        }
+        if (args.length == 3 && args[1].equals("--threads")) {
+            serve(args[0], args[2], reader);
+            return;
+        }
         if (args.length > 1) {
             System.out.println("Please provide only ONE filename to read from.");
             return;
@@ -18,6 +29,10 @@ public class Main {
     }
 
     static void readFile(final String filename, final BufferedReader reader) {
+        if (MappedNetwork.isCompiledMap(Path.of(filename))) {
+            readCompiledMap(filename, reader);
+            return;
+        }
         var lines = FileOperations.readJSONFile(filename);
         if (lines == null) {
             return;
@@ -25,4 +40,61 @@ public class Main {
         var controller = new Controller(lines, new CommandParser(reader));
         controller.start();
     }
+
+    /**
+     * Answer commands through a {@link QueryService}, searching routes on several threads.
+     *
+     * @param filename
+     *         JSON map to read
+     * @param threads
+     *         number of threads answering route queries
+     * @param reader
+     *         source of the commands
+     */
+    static void serve(final String filename, final String threads, final BufferedReader reader) {
+        if (!threads.matches("\\d{1,3}") || Integer.parseInt(threads) == 0) {
+            System.out.println("Usage: FILE --threads COUNT");
+            return;
+        }
+        var lines = FileOperations.readJSONFile(filename);
+        if (lines == null) {
+            return;
+        }
+        try (var service = new QueryService(lines, Integer.parseInt(threads))) {
+            new ServiceController(service, new CommandParser(reader)).start();
+        }
+    }
+
+    /**
+     * Compile a JSON map into the binary map format.
+     *
+     * @param args
+     *         command line arguments: {@code compile SOURCE TARGET}
+     */
+    static void compile(final String[] args) {
+        if (args.length != 3) {
+            System.out.println("Usage: compile SOURCE.json TARGET");
+            return;
+        }
+        var lines = FileOperations.readJSONFile(args[1]);
+        if (lines == null) {
+            return;
+        }
+        try {
+            MapCompiler.write(lines, Path.of(args[2]));
+        } catch (IOException e) {
+            System.out.println("Error writing file!");
+        }
+    }
+
+    static void readCompiledMap(final String filename, final BufferedReader reader) {
+        MappedNetwork network;
+        try {
+            network = MappedNetwork.open(Path.of(filename));
+        } catch (IOException e) {
+            System.out.println("Error reading file!");
+            return;
+        }
+        new CompiledMapController(network, new CommandParser(reader)).start();
+    }
 }
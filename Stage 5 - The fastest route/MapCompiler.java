@@ -0,0 +1,147 @@
+package metro;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Writes a network to the compiled binary map format read by {@link MappedNetwork}.
+ * <p>
+ * All values are big-endian ints unless noted. The file holds, in order:
+ * <ol>
+ *     <li>header: magic, format version, string count, string byte count (padded to 4), line count, station count,
+ *     edge count and output order length</li>
+ *     <li>string table: {@code stringCount + 1} byte offsets followed by the UTF-8 bytes of every distinct line and
+ *     station name</li>
+ *     <li>line records: name string, first station id, station count, start and length of its output order</li>
+ *     <li>station records: name string, line index and time to the next station</li>
+ *     <li>adjacency in compressed sparse row form: {@code stationCount + 1} edge offsets, then the target and the
+ *     minutes of every edge</li>
+ *     <li>the station ids of each line sorted by the bytes of their names, for binary search</li>
+ *     <li>the output order of every line, as station ids</li>
+ *     <li>one byte per edge giving its kind (next, previous or transfer); transfers of a station are stored in the
+ *     order they are output</li>
+ * </ol>
+ * The stations of each line have consecutive ids.
+ */
+final class MapCompiler {
+    static final int MAGIC   = 0x484d4150;  // "HMAP"
+    static final int VERSION = 1;
+
+    private MapCompiler() {
+    }
+
+    /**
+     * Write the network to a compiled map file.
+     *
+     * @param metroLines
+     *         lines of the network keyed by name
+     * @param file
+     *         path of the file to write
+     *
+     * @throws IOException
+     *         if the file can't be written
+     */
+    static void write(final Map<String, MetroLine> metroLines, final Path file) throws IOException {
+        List<MetroLine> lines = new ArrayList<>(metroLines.values());
+        MetroGraph      graph = MetroGraph.compile(lines);
+
+        LinkedHashMap<String, Integer> strings = new LinkedHashMap<>();
+        int[] lineRecords    = new int[lines.size() * 5];
+        int[] stationRecords = new int[graph.size() * 3];
+        int[] sorted         = new int[graph.size()];
+        List<Integer> order  = new ArrayList<>();
+
+        int firstStation = 0;
+        for (int line = 0; line < lines.size(); line++) {
+            MetroLine metroLine = lines.get(line);
+            int       count     = metroLine.stations.size();
+            lineRecords[line * 5] = intern(strings, metroLine.getName());
+            lineRecords[line * 5 + 1] = firstStation;
+            lineRecords[line * 5 + 2] = count;
+            lineRecords[line * 5 + 3] = order.size();
+            for (var station : metroLine.getOutputOrder()) {
+                order.add(graph.id(station));
+            }
+            lineRecords[line * 5 + 4] = order.size() - lineRecords[line * 5 + 3];
+
+            for (int id = firstStation; id < firstStation + count; id++) {
+                Station station = graph.station(id);
+                stationRecords[id * 3] = intern(strings, station.getName());
+                stationRecords[id * 3 + 1] = line;
+                stationRecords[id * 3 + 2] = station.getTime();
+            }
+            Integer[] byName = new Integer[count];
+            for (int index = 0; index < count; index++) {
+                byName[index] = firstStation + index;
+            }
+            Arrays.sort(byName, (a, b) -> Arrays.compareUnsigned(utf8(graph.station(a).getName()),
+                    utf8(graph.station(b).getName())));
+            for (int index = 0; index < count; index++) {
+                sorted[firstStation + index] = byName[index];
+            }
+            firstStation += count;
+        }
+
+        int[] stringOffsets = new int[strings.size() + 1];
+        var   stringBytes   = new ByteArrayOutputStream();
+        int   index         = 0;
+        for (var name : strings.keySet()) {
+            stringBytes.writeBytes(utf8(name));
+            stringOffsets[++index] = stringBytes.size();
+        }
+        while (stringBytes.size() % 4 != 0) {
+            stringBytes.write(0);
+        }
+
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(strings.size());
+            out.writeInt(stringBytes.size());
+            out.writeInt(lines.size());
+            out.writeInt(graph.size());
+            out.writeInt(graph.edgeCount());
+            out.writeInt(order.size());
+            writeInts(out, stringOffsets);
+            stringBytes.writeTo(out);
+            writeInts(out, lineRecords);
+            writeInts(out, stationRecords);
+            for (int id = 0; id <= graph.size(); id++) {
+                out.writeInt(id < graph.size() ? graph.firstEdge(id) : graph.edgeCount());
+            }
+            for (int edge = 0; edge < graph.edgeCount(); edge++) {
+                out.writeInt(graph.target(edge));
+            }
+            for (int edge = 0; edge < graph.edgeCount(); edge++) {
+                out.writeInt(graph.weight(edge));
+            }
+            writeInts(out, sorted);
+            for (int id : order) {
+                out.writeInt(id);
+            }
+            for (int edge = 0; edge < graph.edgeCount(); edge++) {
+                out.writeByte(graph.kind(edge));
+            }
+        }
+    }
+
+    private static int intern(final Map<String, Integer> strings, final String value) {
+        return strings.computeIfAbsent(value, key -> strings.size());
+    }
+
+    static byte[] utf8(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writeInts(final DataOutputStream out, final int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package metro;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+/**
+ * Network served straight from a memory-mapped compiled map file.
+ * <p>
+ * Opening the file maps it and creates views over its sections; no Station objects are built, and station names are
+ * only decoded when they are output. Station lookups by name binary search the sorted ids of the line, comparing the
+ * UTF-8 bytes of the name in place. Opening costs the same whatever the size of the network; pages of the file are
+ * read by the operating system as queries touch them. See {@link MapCompiler} for the file layout.
+ */
+final class MappedNetwork implements RouteGraph {
+    private final ByteBuffer stringBytes;
+    private final IntBuffer  stringOffsets;
+    private final IntBuffer  lines;
+    private final IntBuffer  stations;
+    private final IntBuffer  offsets;
+    private final IntBuffer  targets;
+    private final IntBuffer  weights;
+    private final IntBuffer  sorted;
+    private final IntBuffer  order;
+    private final ByteBuffer kinds;
+
+    private final int                      stationCount;
+    private final HashMap<String, Integer> lineIndex = new HashMap<>();
+
+    private final ThreadLocal<SearchScratch> scratch = ThreadLocal.withInitial(() -> new SearchScratch(size()));
+
+    private MappedNetwork(final ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(0) != MapCompiler.MAGIC || buffer.getInt(4) != MapCompiler.VERSION) {
+            throw new IOException("Not a compiled map of a supported version.");
+        }
+        int stringCount = buffer.getInt(8);
+        int stringSize  = buffer.getInt(12);
+        int lineCount   = buffer.getInt(16);
+        this.stationCount = buffer.getInt(20);
+        int edgeCount   = buffer.getInt(24);
+        int orderCount  = buffer.getInt(28);
+
+        int position = 32;
+        stringOffsets = buffer.slice(position, (stringCount + 1) * 4).asIntBuffer();
+        position += (stringCount + 1) * 4;
+        stringBytes = buffer.slice(position, stringSize);
+        position += stringSize;
+        lines = buffer.slice(position, lineCount * 5 * 4).asIntBuffer();
+        position += lineCount * 5 * 4;
+        stations = buffer.slice(position, stationCount * 3 * 4).asIntBuffer();
+        position += stationCount * 3 * 4;
+        offsets = buffer.slice(position, (stationCount + 1) * 4).asIntBuffer();
+        position += (stationCount + 1) * 4;
+        targets = buffer.slice(position, edgeCount * 4).asIntBuffer();
+        position += edgeCount * 4;
+        weights = buffer.slice(position, edgeCount * 4).asIntBuffer();
+        position += edgeCount * 4;
+        sorted = buffer.slice(position, stationCount * 4).asIntBuffer();
+        position += stationCount * 4;
+        order = buffer.slice(position, orderCount * 4).asIntBuffer();
+        position += orderCount * 4;
+        kinds = buffer.slice(position, edgeCount);
+
+        for (int line = 0; line < lineCount; line++) {
+            lineIndex.put(string(lines.get(line * 5)), line);
+        }
+    }
+
+    /**
+     * Map a compiled map file.
+     *
+     * @param file
+     *         path of the compiled map
+     *
+     * @return the mapped network
+     *
+     * @throws IOException
+     *         if the file can't be read or isn't a compiled map
+     */
+    static MappedNetwork open(final Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new MappedNetwork(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Check whether a file is a compiled map rather than a JSON map.
+     *
+     * @param file
+     *         path of the file to check
+     *
+     * @return true if the file starts with the compiled map magic number
+     */
+    static boolean isCompiledMap(final Path file) {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            return channel.read(magic, 0) == 4 && magic.getInt(0) == MapCompiler.MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the index of a line.
+     *
+     * @param lineName
+     *         name of the line
+     *
+     * @return index of the line or -1 if there is no such line
+     */
+    int line(final String lineName) {
+        return lineIndex.getOrDefault(lineName, -1);
+    }
+
+    String lineName(final int line) {
+        return string(lines.get(line * 5));
+    }
+
+    /**
+     * Find a station of a line by name.
+     *
+     * @param line
+     *         index of the line
+     * @param stationName
+     *         name of the station
+     *
+     * @return id of the station or -1 if the line has no such station
+     */
+    int findStation(final int line, final String stationName) {
+        byte[] name = MapCompiler.utf8(stationName);
+        int    low  = lines.get(line * 5 + 1);
+        int    high = low + lines.get(line * 5 + 2) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int id     = sorted.get(middle);
+            int compared = compareName(stations.get(id * 3), name);
+            if (compared < 0) {
+                low = middle + 1;
+            } else if (compared > 0) {
+                high = middle - 1;
+            } else {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    String stationName(final int id) {
+        return string(stations.get(id * 3));
+    }
+
+    /**
+     * Get the UTF-8 name of a station straight from the mapped file, without decoding it.
+     *
+     * @param id
+     *         id of the station
+     *
+     * @return read-only view of the name bytes
+     */
+    ByteBuffer stationNameBytes(final int id) {
+        return stringSlice(stations.get(id * 3));
+    }
+
+    ByteBuffer lineNameBytes(final int line) {
+        return stringSlice(lines.get(line * 5));
+    }
+
+    int stationLine(final int id) {
+        return stations.get(id * 3 + 1);
+    }
+
+    /**
+     * Number of entries in the output order of a line.
+     *
+     * @param line
+     *         index of the line
+     *
+     * @return length of the output order
+     */
+    int outputLength(final int line) {
+        return lines.get(line * 5 + 4);
+    }
+
+    /**
+     * Station at a position of the output order of a line.
+     *
+     * @param line
+     *         index of the line
+     * @param index
+     *         position in the output order
+     *
+     * @return id of the station
+     */
+    int outputStation(final int line, final int index) {
+        return order.get(lines.get(line * 5 + 3) + index);
+    }
+
+    @Override
+    public int size() {
+        return stationCount;
+    }
+
+    @Override
+    public int firstEdge(final int id) {
+        return offsets.get(id);
+    }
+
+    @Override
+    public int endEdge(final int id) {
+        return offsets.get(id + 1);
+    }
+
+    @Override
+    public int target(final int edge) {
+        return targets.get(edge);
+    }
+
+    @Override
+    public int weight(final int edge) {
+        return weights.get(edge);
+    }
+
+    @Override
+    public byte kind(final int edge) {
+        return kinds.get(edge);
+    }
+
+    @Override
+    public SearchScratch scratch() {
+        return scratch.get();
+    }
+
+    private String string(final int index) {
+        int start = stringOffsets.get(index);
+        byte[] bytes = new byte[stringOffsets.get(index + 1) - start];
+        stringBytes.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer stringSlice(final int index) {
+        int start = stringOffsets.get(index);
+        return stringBytes.slice(start, stringOffsets.get(index + 1) - start);
+    }
+
+    private int compareName(final int index, final byte[] name) {
+        int start  = stringOffsets.get(index);
+        int length = stringOffsets.get(index + 1) - start;
+        for (int position = 0; position < Math.min(length, name.length); position++) {
+            int compared = Byte.compareUnsigned(stringBytes.get(start + position), name[position]);
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return Integer.compare(length, name.length);
+    }
+}
@@ -0,0 +1,386 @@
+package metro;
+
+import java.util.*;
+
+/**
+ * Compiled snapshot of the metro network used for route searches.
+ * <p>
+ * Compiling the network gives every station a dense int id and stores the links between stations in compressed sparse
+ * row form: the edges leaving station {@code id} are {@link #firstEdge} up to (but not including) {@link #endEdge},
+ * and for each edge {@code targets}, {@code weights} and {@code kinds} hold the station it leads to, its travel time in
+ * minutes and whether it follows the line forwards, backwards or is a transfer. Searches can then walk the network
+ * over primitive arrays without allocating per edge.
+ * <p>
+ * The snapshot does not follow later changes to the lines by itself. Stations added at either end of a line and new
+ * transfers can be {@link #patch(NetworkChange) patched} in: every station owns a range of edge slots, and when a new
+ * edge doesn't fit behind its edges the station's edges move to a range twice the size at the end of the arrays.
+ * Removing a station needs a new compile. Patching only ever writes to edge slots past the end of a station's edges,
+ * so a {@link #view} taken earlier, which keeps the edge ranges of its time, never sees it.
+ */
+final class MetroGraph implements RouteGraph {
+    static final byte NEXT     = 0;
+    static final byte PREV     = 1;
+    static final byte TRANSFER = 2;
+
+    private final IdentityHashMap<Station, Integer> ids;
+
+    private Station[] stations;
+    private int       size;
+
+    // edges of station id are firstEdges[id] up to endEdges[id]; the slots up to edgeLimits[id] are free
+    private int[] firstEdges;
+    private int[] endEdges;
+    private int[] edgeLimits;
+
+    private int[]  targets;
+    private int[]  weights;
+    private byte[] kinds;
+    private int    slotsUsed;
+    private int    edgeCount;
+
+    private final ThreadLocal<SearchScratch> scratch;
+
+    private MetroGraph(final Station[] stations, final IdentityHashMap<Station, Integer> ids, final int[] offsets,
+                       final int[] targets, final int[] weights, final byte[] kinds) {
+        this(stations, stations.length, ids, Arrays.copyOf(offsets, stations.length),
+                Arrays.copyOfRange(offsets, 1, stations.length + 1), targets, weights, kinds, targets.length, null);
+    }
+
+    private MetroGraph(final Station[] stations, final int size, final IdentityHashMap<Station, Integer> ids,
+                       final int[] firstEdges, final int[] endEdges, final int[] targets, final int[] weights,
+                       final byte[] kinds, final int edgeCount, final ThreadLocal<SearchScratch> scratch) {
+        this.stations = stations;
+        this.size = size;
+        this.ids = ids;
+        this.firstEdges = firstEdges;
+        this.endEdges = endEdges;
+        this.edgeLimits = endEdges.clone();
+        this.targets = targets;
+        this.weights = weights;
+        this.kinds = kinds;
+        this.slotsUsed = targets.length;
+        this.edgeCount = edgeCount;
+        this.scratch = scratch != null ? scratch : ThreadLocal.withInitial(() -> new SearchScratch(size()));
+    }
+
+    /**
+     * Compile the lines into a graph snapshot.
+     * <p>
+     * Links to stations that are no longer on any line are dropped.
+     *
+     * @param lines
+     *         lines of the network
+     *
+     * @return the compiled graph
+     */
+    static MetroGraph compile(final Collection<MetroLine> lines) {
+        IdentityHashMap<Station, Integer> ids      = new IdentityHashMap<>();
+        List<Station>                     stations = new ArrayList<>();
+        for (var line : lines) {
+            for (var station : line.stations.values()) {
+                ids.put(station, stations.size());
+                stations.add(station);
+            }
+        }
+
+        // first pass counts the edges of each station so the arrays can be sized exactly
+        int[] offsets = new int[stations.size() + 1];
+        for (int id = 0; id < stations.size(); id++) {
+            offsets[id + 1] = offsets[id] + countEdges(stations.get(id), ids);
+        }
+
+        int[]  targets = new int[offsets[stations.size()]];
+        int[]  weights = new int[targets.length];
+        byte[] kinds   = new byte[targets.length];
+        for (int id = 0; id < stations.size(); id++) {
+            Station station = stations.get(id);
+            int     edge    = offsets[id];
+            if (station.getNext() != null) {
+                for (var next : station.getNext()) {
+                    if (ids.containsKey(next)) {
+                        targets[edge] = ids.get(next);
+                        weights[edge] = station.getTime();
+                        kinds[edge++] = NEXT;
+                    }
+                }
+            }
+            if (station.getPrev() != null) {
+                for (var prev : station.getPrev()) {
+                    if (ids.containsKey(prev)) {
+                        targets[edge] = ids.get(prev);
+                        weights[edge] = prev.getTime();
+                        kinds[edge++] = PREV;
+                    }
+                }
+            }
+            for (var transfer : station.getTransfers()) {
+                if (ids.containsKey(transfer)) {
+                    targets[edge] = ids.get(transfer);
+                    weights[edge] = FastestRouteFinder.TRANSFER_TIME;
+                    kinds[edge++] = TRANSFER;
+                }
+            }
+        }
+
+        return new MetroGraph(stations.toArray(Station[]::new), ids, offsets, targets, weights, kinds);
+    }
+
+    /**
+     * Read-only view of the graph as it is now, over other Station objects.
+     * <p>
+     * The view shares the edge arrays with this graph and only copies where the edges of each station start and end,
+     * so it costs two int arrays of the station count however many edges there are. It also searches with the same
+     * scratch space as this graph. Patching this graph afterwards doesn't change the view. The view itself can't be
+     * patched, and {@link #id} knows none of its stations.
+     *
+     * @param copies
+     *         station for every id of this graph, such as copies that other threads may read while the stations of
+     *         the lines are edited; only the first {@link #size()} are used
+     *
+     * @return the view
+     */
+    MetroGraph view(final Station[] copies) {
+        return new MetroGraph(copies, size, new IdentityHashMap<>(), Arrays.copyOf(firstEdges, size),
+                Arrays.copyOf(endEdges, size), targets, weights, kinds, edgeCount, scratch);
+    }
+
+    /**
+     * Apply an edit of the lines to the graph in place.
+     * <p>
+     * A station added at either end of a line becomes the last id of the graph, linked to its neighbour on the line,
+     * and a new transfer adds an edge both ways. Each new edge goes after the edges of the same kind its station
+     * already has, so the edges keep the order a new compile would give them and searches walk them the same way.
+     * Removals can't be patched.
+     *
+     * @param change
+     *         the edit, already applied to the lines
+     *
+     * @return true if the graph now matches the lines, false if it has to be compiled again
+     */
+    boolean patch(final NetworkChange change) {
+        Integer other = ids.get(change.other());
+        switch (change.kind()) {
+            case APPENDED, ADDED_HEAD -> {
+                if (other == null || ids.containsKey(change.station())) {
+                    return false;
+                }
+                int     id     = addStation(change.station());
+                boolean append = change.kind() == NetworkChange.Kind.APPENDED;
+                // a link takes the time of the station it leaves in travel order
+                int time = append ? change.other().getTime() : change.station().getTime();
+                addEdge(id, other, time, append ? PREV : NEXT);
+                addEdge(other, id, time, append ? NEXT : PREV);
+                return true;
+            }
+            case CONNECTED -> {
+                Integer id = ids.get(change.station());
+                if (id == null || other == null) {
+                    return false;
+                }
+                addEdge(id, other, FastestRouteFinder.TRANSFER_TIME, TRANSFER);
+                addEdge(other, id, FastestRouteFinder.TRANSFER_TIME, TRANSFER);
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    private int addStation(final Station station) {
+        if (size == stations.length) {
+            int capacity = Math.max(16, size * 2);
+            stations = Arrays.copyOf(stations, capacity);
+            firstEdges = Arrays.copyOf(firstEdges, capacity);
+            endEdges = Arrays.copyOf(endEdges, capacity);
+            edgeLimits = Arrays.copyOf(edgeLimits, capacity);
+        }
+        int id = size++;
+        stations[id] = station;
+        ids.put(station, id);
+        // room for the link to the next station added beyond it
+        firstEdges[id] = reserveSlots(2);
+        endEdges[id] = firstEdges[id];
+        edgeLimits[id] = firstEdges[id] + 2;
+        return id;
+    }
+
+    /**
+     * Add an edge behind the station's edges of the same kind.
+     * <p>
+     * The edge goes into the first free slot after the station's edges when it belongs last. Otherwise, or when there
+     * is no free slot left, the station's edges are copied to a new range with the edge in its place, so edges that a
+     * {@link #view} may be reading are never overwritten.
+     */
+    private void addEdge(final int id, final int target, final int weight, final byte kind) {
+        int end    = endEdges[id];
+        int insert = end;
+        while (insert > firstEdges[id] && kinds[insert - 1] > kind) {
+            insert--;
+        }
+
+        if (insert < end || end == edgeLimits[id]) {
+            int count    = end - firstEdges[id];
+            int capacity = Math.max(2, (count + 1) * 2);
+            int first    = reserveSlots(capacity);
+            int before   = insert - firstEdges[id];
+            copyEdges(firstEdges[id], first, before);
+            copyEdges(insert, first + before + 1, end - insert);
+            insert = first + before;
+            firstEdges[id] = first;
+            endEdges[id] = first + count;
+            edgeLimits[id] = first + capacity;
+        }
+
+        targets[insert] = target;
+        weights[insert] = weight;
+        kinds[insert] = kind;
+        endEdges[id]++;
+        edgeCount++;
+    }
+
+    private void copyEdges(final int from, final int to, final int count) {
+        System.arraycopy(targets, from, targets, to, count);
+        System.arraycopy(weights, from, weights, to, count);
+        System.arraycopy(kinds, from, kinds, to, count);
+    }
+
+    /**
+     * Hand out free edge slots at the end of the edge arrays, growing them when needed.
+     *
+     * @return first of the slots
+     */
+    private int reserveSlots(final int count) {
+        if (slotsUsed + count > targets.length) {
+            int capacity = Math.max(slotsUsed + count, targets.length * 2);
+            targets = Arrays.copyOf(targets, capacity);
+            weights = Arrays.copyOf(weights, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+        }
+        slotsUsed += count;
+        return slotsUsed - count;
+    }
+
+    private static int countEdges(final Station station, final IdentityHashMap<Station, Integer> ids) {
+        int count = 0;
+        if (station.getNext() != null) {
+            count += (int) station.getNext().stream().filter(ids::containsKey).count();
+        }
+        if (station.getPrev() != null) {
+            count += (int) station.getPrev().stream().filter(ids::containsKey).count();
+        }
+        count += (int) station.getTransfers().stream().filter(ids::containsKey).count();
+        return count;
+    }
+
+    /**
+     * Number of stations in the graph.
+     *
+     * @return station count
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of links in the graph.
+     * <p>
+     * Right after compiling the edges of all stations are packed in id order, so the edges are numbered 0 up to this
+     * count; once the graph has been patched there can be free slots in between.
+     *
+     * @return edge count
+     */
+    int edgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * Get the id of a station.
+     *
+     * @param station
+     *         Station object to look up
+     *
+     * @return the id of the station or -1 if it isn't part of the graph
+     */
+    int id(final Station station) {
+        Integer id = ids.get(station);
+        return id == null ? -1 : id;
+    }
+
+    Station station(final int id) {
+        return stations[id];
+    }
+
+    /**
+     * Turn a route of station ids into a route of Station objects.
+     *
+     * @param path
+     *         route found in this graph
+     *
+     * @return the same route as Station objects
+     */
+    Route toRoute(final RoutePath path) {
+        List<Station> route = new ArrayList<>(path.stations().length);
+        for (int id : path.stations()) {
+            route.add(stations[id]);
+        }
+        return new Route(route, path.time());
+    }
+
+    /**
+     * First edge leaving a station.
+     *
+     * @param id
+     *         station id
+     *
+     * @return index of the first edge of the station
+     */
+    @Override
+    public int firstEdge(final int id) {
+        return firstEdges[id];
+    }
+
+    /**
+     * End of the edges leaving a station.
+     *
+     * @param id
+     *         station id
+     *
+     * @return index one past the last edge of the station
+     */
+    @Override
+    public int endEdge(final int id) {
+        return endEdges[id];
+    }
+
+    /**
+     * Working arrays for a search on this graph, private to the calling thread.
+     *
+     * @return the scratch space of the current thread, replaced by a larger one once stations have been added
+     */
+    @Override
+    public SearchScratch scratch() {
+        SearchScratch current = scratch.get();
+        if (current.queue.length < size) {
+            current = new SearchScratch(stations.length);
+            scratch.set(current);
+        }
+        return current;
+    }
+
+    @Override
+    public int target(final int edge) {
+        return targets[edge];
+    }
+
+    @Override
+    public int weight(final int edge) {
+        return weights[edge];
+    }
+
+    @Override
+    public byte kind(final int edge) {
+        return kinds[edge];
+    }
+}
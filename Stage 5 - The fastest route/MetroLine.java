@@ -10,6 +10,8 @@ public class MetroLine {
 
     LinkedHashMap<String, Station> stations = new LinkedHashMap<>();
 
+    private final List<NetworkListener> listeners = new ArrayList<>();
+
     MetroLine(final String lineName, final Station firstStation, final Station lastStation) {
         this.lineName = lineName;
         this.head = firstStation;
@@ -41,47 +43,105 @@ public class MetroLine {
      * followed by which line you can transfer to if applicable.
      */
     void printStations() {
-        if (head == null) { // if head is null, there are no stations on the line
+        printStations(OutputSink.stdout());
+    }
+
+    /**
+     * Write the stations of the line as {@link #printStations()} does.
+     *
+     * @param out
+     *         sink to write to
+     */
+    void printStations(final OutputSink out) {
+        var order = getOutputOrder();
+        if (order.isEmpty()) { // there are no stations on the line
             return;
         }
 
-        ArrayDeque<Station> stationDeque = new ArrayDeque<>();
-        stationDeque.add(head);
-        System.out.println("depot");
-        while (!stationDeque.isEmpty()) {
-            Station current = stationDeque.remove();
-            System.out.print(current.getName());
+        out.ascii("depot").newLine();
+        for (var current : order) {
+            out.bytes(current.getNameBytes());
             if (current.hasTransfers()) {
                 var transfer = current.getTransfers();
                 for (var entry : transfer) {
-                    System.out.printf(" - %s (%s)", entry.getName(), entry.getLine());
+                    out.ascii(" - ").bytes(entry.getNameBytes()).ascii(" (").bytes(entry.getLineBytes()).ascii(")");
                 }
             }
-            System.out.println();
+            out.newLine();
+        }
+        out.ascii("depot").newLine();
+    }
+
+    /**
+     * Get the stations in the order they are output.
+     * <p>
+     * Walks the line from the head following every next link, so a station reached over several branches is listed
+     * once for each of them.
+     *
+     * @return stations of the line in output order
+     */
+    List<Station> getOutputOrder() {
+        List<Station> order = new ArrayList<>();
+        if (head == null) {
+            return order;
+        }
+
+        ArrayDeque<Station> stationDeque = new ArrayDeque<>();
+        stationDeque.add(head);
+        while (!stationDeque.isEmpty()) {
+            Station current = stationDeque.remove();
+            order.add(current);
             if (current.getNext() != null) {
                 stationDeque.addAll(current.getNext());
             }
         }
-        System.out.println("depot");
+        return order;
+    }
+
+    String getName() {
+        return lineName;
+    }
+
+    /**
+     * Register a listener to be told about every later edit of this line.
+     *
+     * @param listener
+     *         receives the edits
+     */
+    void addListener(final NetworkListener listener) {
+        listeners.add(listener);
+    }
+
+    private void fire(final NetworkChange.Kind kind, final Station station, final Station other) {
+        var change = new NetworkChange(kind, station, other);
+        for (var listener : listeners) {
+            listener.networkChanged(change);
+        }
     }
 
     void addHead(final String stationName, final int time) {
         if (stationName != null && !stationName.isEmpty()) {
+            requireNewName(stationName);
             Station newStation = new Station(stationName, lineName, time);
             newStation.setNext(new LinkedList<>(List.of(head)));
             head.setPrev(new LinkedList<>(List.of(newStation)));
+            Station oldHead = head;
             head = newStation;
             stations.put(stationName, newStation);
+            fire(NetworkChange.Kind.ADDED_HEAD, newStation, oldHead);
         }
     }
 
     void append(final String stationName, final int time) {
         if (stationName != null && !stationName.isEmpty()) {
+            requireNewName(stationName);
             Station newStation = new Station(stationName, lineName, time);
             newStation.setPrev(new LinkedList<>(List.of(tail)));
             tail.setNext(new LinkedList<>(List.of(newStation)));
+            Station oldTail = tail;
             tail = newStation;
             stations.put(stationName, newStation);
+            fire(NetworkChange.Kind.APPENDED, newStation, oldTail);
         }
     }
 
@@ -103,6 +163,37 @@ public class MetroLine {
                 tail = previous.get(0);
             }
             stations.remove(stationName);
+            fire(NetworkChange.Kind.REMOVED, toRemove, null);
+        }
+    }
+
+    /**
+     * Add a transfer between a station of this line and a station of any line.
+     *
+     * @param station
+     *         station of this line
+     * @param other
+     *         station to transfer to
+     */
+    void connect(final Station station, final Station other) {
+        station.setTransfers(other);
+        other.setTransfers(station);
+        fire(NetworkChange.Kind.CONNECTED, station, other);
+    }
+
+    /**
+     * Refuse a name that is already on the line.
+     * <p>
+     * The index holds one station per name, so a second station of the same name would hide the first one while it
+     * stays linked into the line.
+     *
+     * @throws IllegalArgumentException
+     *         if the line has a station of that name
+     */
+    private void requireNewName(final String stationName) {
+        if (stations.containsKey(stationName)) {
+            throw new IllegalArgumentException(
+                    String.format("Station %s is already on the %s line.", stationName, lineName));
         }
     }
 
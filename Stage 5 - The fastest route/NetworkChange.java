@@ -0,0 +1,33 @@
+package metro;
+
+/**
+ * One edit of the network, as reported to {@link NetworkListener}s after it has been applied.
+ *
+ * @param kind
+ *         what happened
+ * @param station
+ *         station that was added, removed or given a transfer
+ * @param other
+ *         station the added station was linked to, or the other end of a new transfer; null for removals
+ */
+record NetworkChange(Kind kind, Station station, Station other) {
+    enum Kind {
+        APPENDED,
+        ADDED_HEAD,
+        REMOVED,
+        CONNECTED
+    }
+
+    /**
+     * Check whether routes found before the change may be wrong after it.
+     * <p>
+     * A station added to the end of a line is only linked to one other station, so no route between the stations that
+     * were already there can pass through it. Removals can break routes, and since the stations either side are then
+     * linked directly they can also make other routes shorter; transfers can make routes shorter too.
+     *
+     * @return true if previously found routes must be discarded
+     */
+    boolean invalidatesRoutes() {
+        return kind == Kind.REMOVED || kind == Kind.CONNECTED;
+    }
+}
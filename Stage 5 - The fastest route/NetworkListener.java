@@ -0,0 +1,15 @@
+package metro;
+
+/**
+ * Receives the edits made to a {@link MetroLine}.
+ */
+@FunctionalInterface
+interface NetworkListener {
+    /**
+     * Called after an edit has been applied.
+     *
+     * @param change
+     *         the edit
+     */
+    void networkChanged(NetworkChange change);
+}
@@ -0,0 +1,163 @@
+package metro;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered standard output for the command loop.
+ * <p>
+ * Output is rendered into one reusable 64 KiB buffer and written to the stdout channel when the buffer fills up or
+ * {@link #flush()} is called. {@link CommandParser} flushes before it would block waiting for input, so piped commands
+ * are answered in large chunks while an interactive user still sees every answer. Station and line listings write the
+ * pre-encoded UTF-8 bytes of the names directly. {@link Main} calls {@link #install()} first thing, which points
+ * {@link System#out} at the same buffer, so anything printed the usual way keeps its place in the output.
+ */
+final class OutputSink extends OutputStream {
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private static final OutputSink STDOUT = new OutputSink(new FileOutputStream(FileDescriptor.out).getChannel());
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer          buffer = ByteBuffer.allocate(1 << 16);
+
+    /**
+     * Create a sink writing to a channel; {@link #stdout()} is the one the commands print to.
+     *
+     * @param channel
+     *         destination of the buffered bytes
+     */
+    OutputSink(final WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Get the sink over standard output.
+     *
+     * @return the standard output sink
+     */
+    static OutputSink stdout() {
+        return STDOUT;
+    }
+
+    /**
+     * Point {@link System#out} at the standard output sink and flush the sink when the JVM exits.
+     * <p>
+     * Must be called once, before anything is printed, so that output printed through either of them comes out in
+     * the order it was written, and none is left in the buffer by {@link System#exit}.
+     */
+    static void install() {
+        System.setOut(new PrintStream(STDOUT, false, StandardCharsets.UTF_8));
+        Runtime.getRuntime().addShutdownHook(new Thread(STDOUT::flush));
+    }
+
+    @Override
+    public synchronized void write(final int b) {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public synchronized void write(final byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int chunk = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Append ASCII text without encoding it through a charset.
+     *
+     * @param text
+     *         text made only of ASCII characters
+     *
+     * @return this sink
+     */
+    synchronized OutputSink ascii(final String text) {
+        for (int index = 0; index < text.length(); index++) {
+            write(text.charAt(index));
+        }
+        return this;
+    }
+
+    synchronized OutputSink bytes(final byte[] bytes) {
+        write(bytes, 0, bytes.length);
+        return this;
+    }
+
+    /**
+     * Append the remaining bytes of a buffer without changing its position.
+     *
+     * @param source
+     *         bytes to append
+     *
+     * @return this sink
+     */
+    synchronized OutputSink bytes(final ByteBuffer source) {
+        var bytes = source.duplicate();
+        while (bytes.hasRemaining()) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int chunk = Math.min(bytes.remaining(), buffer.remaining());
+            buffer.put(buffer.position(), bytes, bytes.position(), chunk);
+            buffer.position(buffer.position() + chunk);
+            bytes.position(bytes.position() + chunk);
+        }
+        return this;
+    }
+
+    /**
+     * Append the decimal digits of a number.
+     *
+     * @param value
+     *         non-negative number to append
+     *
+     * @return this sink
+     */
+    synchronized OutputSink number(final int value) {
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            write('0' + value / divisor % 10);
+        }
+        return this;
+    }
+
+    synchronized OutputSink newLine() {
+        return bytes(LINE_SEPARATOR);
+    }
+
+    @Override
+    public synchronized void flush() {
+        drain();
+    }
+
+    private void drain() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+    }
+}
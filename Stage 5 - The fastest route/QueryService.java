@@ -0,0 +1,314 @@
+package metro;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Embedded route query service that answers queries from several threads while the network is being edited.
+ * <p>
+ * Queries never touch the lines or stations being edited. They run against an immutable {@link Snapshot} holding a
+ * {@link MetroGraph#view view} of the compiled network, whose stations are copies carrying only their name, line and
+ * time, and a name index. The snapshot is read once from an {@link AtomicReference} when the query is submitted. Edits
+ * are applied one at a time to the service's private copy of the lines, after which a new snapshot is published with a
+ * single reference write. Readers therefore never wait for writers and only ever see the network as it was before or
+ * after a complete edit; a query submitted before an edit answers for the old network, even when it runs after the
+ * edit.
+ * <p>
+ * The service keeps one compiled graph and {@link MetroGraph#patch patches} it with every edit of the lines. A new
+ * snapshot shares the edge arrays, the station copies and the name index of every line it didn't change with the
+ * snapshot before it. It copies only where each station's edges start and end, the name index of an edited line, and
+ * the station just added, so an edit costs two int arrays of the station count instead of a compile. Removals can't
+ * be patched and compile the network again.
+ */
+class QueryService implements AutoCloseable {
+    /**
+     * Immutable view of the network at one version.
+     *
+     * @param graph
+     *         compiled network
+     * @param stationIds
+     *         station ids keyed by line name and then station name
+     * @param version
+     *         number of edits applied before this snapshot was taken
+     */
+    record Snapshot(MetroGraph graph, Map<String, Map<String, Integer>> stationIds, long version) {
+        /**
+         * Get the id of a station.
+         *
+         * @param lineName
+         *         name of the line of the station
+         * @param stationName
+         *         name of the station
+         *
+         * @return id of the station in {@link #graph()}
+         *
+         * @throws IllegalArgumentException
+         *         if there is no such line or station
+         */
+        int id(final String lineName, final String stationName) {
+            var ids = stationIds.get(lineName);
+            if (ids == null) {
+                throw new IllegalArgumentException("Invalid line name: " + lineName);
+            }
+            Integer id = ids.get(stationName);
+            if (id == null) {
+                throw new IllegalArgumentException(
+                        String.format("No station %s on the %s line.", stationName, lineName));
+            }
+            return id;
+        }
+    }
+
+    private final HashMap<String, MetroLine> lines;
+    private final ExecutorService            executor;
+    private final AtomicReference<Snapshot>  snapshot = new AtomicReference<>();
+
+    // the editing side, only used under the service's lock
+    private final List<NetworkChange>               changes = new ArrayList<>();
+    private       MetroGraph                        graph;
+    private       Station[]                         copies;
+    private       Map<String, Map<String, Integer>> stationIds;
+
+    /**
+     * Create a service over a network.
+     * <p>
+     * The service takes ownership of the lines; the caller must not edit them afterwards.
+     *
+     * @param lines
+     *         lines of the network keyed by name
+     * @param threads
+     *         number of threads answering queries
+     */
+    QueryService(final HashMap<String, MetroLine> lines, final int threads) {
+        this.lines = lines;
+        this.executor = Executors.newFixedThreadPool(threads);
+        for (var line : lines.values()) {
+            line.addListener(changes::add);
+        }
+        compile();
+        snapshot.set(new Snapshot(graph.view(copies), stationIds, 0));
+    }
+
+    /**
+     * Current snapshot of the network.
+     *
+     * @return the latest published snapshot
+     */
+    Snapshot snapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Find the route with the fewest stops on the query threads.
+     *
+     * @param startLine
+     *         line of the start station
+     * @param startStation
+     *         name of the start station
+     * @param endLine
+     *         line of the end station
+     * @param endStation
+     *         name of the end station
+     *
+     * @return the route over the network as it is now, empty if there is none; fails with
+     *         {@link IllegalArgumentException} for unknown names
+     */
+    CompletableFuture<Optional<Route>> route(final String startLine, final String startStation,
+                                             final String endLine, final String endStation) {
+        Snapshot current = snapshot.get();
+        return CompletableFuture.supplyAsync(() -> {
+            var graph = current.graph();
+            var path = new ShortestRouteFinder(graph).find(current.id(startLine, startStation),
+                    current.id(endLine, endStation));
+            return Optional.ofNullable(path).map(graph::toRoute);
+        }, executor);
+    }
+
+    /**
+     * Find the fastest route on the query threads.
+     *
+     * @param startLine
+     *         line of the start station
+     * @param startStation
+     *         name of the start station
+     * @param endLine
+     *         line of the end station
+     * @param endStation
+     *         name of the end station
+     *
+     * @return the route over the network as it is now, empty if there is none; fails with
+     *         {@link IllegalArgumentException} for unknown names
+     */
+    CompletableFuture<Optional<Route>> fastestRoute(final String startLine, final String startStation,
+                                                    final String endLine, final String endStation) {
+        Snapshot current = snapshot.get();
+        return CompletableFuture.supplyAsync(() -> {
+            var graph = current.graph();
+            var path = new FastestRouteFinder(graph).find(current.id(startLine, startStation),
+                    current.id(endLine, endStation));
+            return Optional.ofNullable(path).map(graph::toRoute);
+        }, executor);
+    }
+
+    /**
+     * Add a station to the end of a line and publish the new network.
+     *
+     * @param lineName
+     *         line to add the station to
+     * @param stationName
+     *         name of the new station
+     * @param time
+     *         minutes to the next station
+     *
+     * @throws IllegalArgumentException
+     *         if there is no such line or the line already has a station of that name
+     */
+    synchronized void append(final String lineName, final String stationName, final int time) {
+        line(lineName).append(stationName, time);
+        publish();
+    }
+
+    /**
+     * Add a station to the start of a line and publish the new network.
+     *
+     * @param lineName
+     *         line to add the station to
+     * @param stationName
+     *         name of the new station
+     * @param time
+     *         minutes to the next station
+     *
+     * @throws IllegalArgumentException
+     *         if there is no such line or the line already has a station of that name
+     */
+    synchronized void addHead(final String lineName, final String stationName, final int time) {
+        line(lineName).addHead(stationName, time);
+        publish();
+    }
+
+    /**
+     * Remove a station from a line and publish the new network.
+     *
+     * @param lineName
+     *         line to remove the station from
+     * @param stationName
+     *         name of the station to remove
+     *
+     * @throws IllegalArgumentException
+     *         if there is no such line or station
+     */
+    synchronized void remove(final String lineName, final String stationName) {
+        station(lineName, stationName);
+        line(lineName).remove(stationName);
+        publish();
+    }
+
+    /**
+     * Add a transfer between two stations and publish the new network.
+     *
+     * @param lineFrom
+     *         line of the first station
+     * @param stationFrom
+     *         name of the first station
+     * @param lineTo
+     *         line of the second station
+     * @param stationTo
+     *         name of the second station
+     *
+     * @throws IllegalArgumentException
+     *         if there is no such line or station
+     */
+    synchronized void connect(final String lineFrom, final String stationFrom, final String lineTo,
+                              final String stationTo) {
+        Station from = station(lineFrom, stationFrom);
+        Station to   = station(lineTo, stationTo);
+        line(lineFrom).connect(from, to);
+        publish();
+    }
+
+    /**
+     * Stop accepting queries and let running ones finish.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private MetroLine line(final String lineName) {
+        MetroLine line = lines.get(lineName);
+        if (line == null) {
+            throw new IllegalArgumentException("Invalid line name: " + lineName);
+        }
+        return line;
+    }
+
+    private Station station(final String lineName, final String stationName) {
+        Station station = line(lineName).stations.get(stationName);
+        if (station == null) {
+            throw new IllegalArgumentException(
+                    String.format("No station %s on the %s line.", stationName, lineName));
+        }
+        return station;
+    }
+
+    /**
+     * Bring the graph up to date with the edits of the lines and publish it as the next snapshot.
+     */
+    private void publish() {
+        int     size    = graph.size();
+        boolean patched = true;
+        for (var change : changes) {
+            patched = patched && graph.patch(change);
+        }
+        changes.clear();
+        if (patched) {
+            addCopies(size);
+        } else {
+            compile();
+        }
+        snapshot.set(new Snapshot(graph.view(copies), stationIds, snapshot.get().version() + 1));
+    }
+
+    /**
+     * Compile the graph again and copy all of its stations.
+     */
+    private void compile() {
+        graph = MetroGraph.compile(lines.values());
+        copies = new Station[graph.size()];
+        Map<String, Map<String, Integer>> ids = new HashMap<>();
+        for (var lineName : lines.keySet()) {
+            ids.put(lineName, Map.of());
+        }
+        stationIds = Collections.unmodifiableMap(ids);
+        addCopies(0);
+    }
+
+    /**
+     * Copy the stations of the graph from an id on and add them to the name index.
+     * <p>
+     * Earlier snapshots only read the copies below their own station count, so the new copies can go into the same
+     * array as long as it has room. The name index is copied on write: the maps of the lines that got stations are
+     * replaced, and the others are shared.
+     */
+    private void addCopies(final int from) {
+        if (from == graph.size()) {
+            return;
+        }
+        if (copies.length < graph.size()) {
+            copies = Arrays.copyOf(copies, Math.max(graph.size(), copies.length * 2));
+        }
+        Map<String, Map<String, Integer>> ids     = new HashMap<>(stationIds);
+        Map<String, Map<String, Integer>> changed = new HashMap<>();
+        for (int id = from; id < graph.size(); id++) {
+            Station station = graph.station(id);
+            copies[id] = new Station(station.getName(), station.getLine(), station.getTime());
+            changed.computeIfAbsent(station.getLine(), lineName -> new HashMap<>(ids.getOrDefault(lineName, Map.of())))
+                    .put(station.getName(), id);
+        }
+        changed.forEach((lineName, names) -> ids.put(lineName, Collections.unmodifiableMap(names)));
+        stationIds = Collections.unmodifiableMap(ids);
+    }
+}
@@ -0,0 +1,175 @@
+package metro;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Check that {@link QueryService} readers only ever see whole edits while a writer keeps editing the network.
+ * <p>
+ * The network starts as two unconnected lines: Red of {@value #STATIONS} stations and Blue with one station for every
+ * station to be appended. One writer thread alternates between appending a station {@code X<edit>} to Red and
+ * connecting the station it just appended to the next Blue station, so the number of edits published fixes what the
+ * network must look like. Reader threads meanwhile take snapshots and query routes through the service, and check
+ * that:
+ * <ul>
+ *     <li>snapshot versions never go backwards for a reader,</li>
+ *     <li>a snapshot has exactly the stations and the transfers of its version, and every transfer has its way
+ *     back,</li>
+ *     <li>the fastest route from the first Red station to the newest appended one takes the minutes that station's
+ *     position on the line gives, and</li>
+ *     <li>the stations of a route are detached copies with no links to the stations being edited.</li>
+ * </ul>
+ * Run with {@code java metro.QueryServiceCheck [READERS] [EDITS]}; the exit status is 1 if any check failed.
+ */
+class QueryServiceCheck {
+    private static final int STATIONS   = 20;
+    private static final int RED_TIME   = 2;
+    private static final int BLUE_TIME  = 3;
+    private static final int ADDED_TIME = 1;
+
+    public static void main(String[] args) throws InterruptedException {
+        int readers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int edits   = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+
+        HashMap<String, MetroLine> lines = new HashMap<>();
+        int blue = edits / 2 + 1;
+        lines.put("Red", line("Red", "R", RED_TIME, STATIONS));
+        lines.put("Blue", line("Blue", "B", BLUE_TIME, blue));
+
+        List<String>  failures  = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean writing   = new AtomicBoolean(true);
+        AtomicLong    snapshots = new AtomicLong();
+        AtomicLong    routes    = new AtomicLong();
+        try (var service = new QueryService(lines, readers)) {
+            List<Thread> threads = new ArrayList<>();
+            for (int reader = 0; reader < readers; reader++) {
+                threads.add(new Thread(() -> {
+                    long lastVersion = 0;
+                    while (writing.get() && failures.isEmpty()) {
+                        var snapshot = service.snapshot();
+                        if (snapshot.version() < lastVersion) {
+                            failures.add("version went back from " + lastVersion + " to " + snapshot.version());
+                        }
+                        lastVersion = snapshot.version();
+                        checkSnapshot(snapshot, blue, failures);
+                        snapshots.incrementAndGet();
+                        if (checkRoute(service, snapshot.version(), failures)) {
+                            routes.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+
+            for (int edit = 1; edit <= edits && failures.isEmpty(); edit++) {
+                if (edit % 2 == 1) {
+                    service.append("Red", "X" + edit, ADDED_TIME);
+                } else {
+                    service.connect("Red", "X" + (edit - 1), "Blue", "B" + edit / 2);
+                }
+            }
+            writing.set(false);
+            for (var thread : threads) {
+                thread.join();
+            }
+            checkSnapshot(service.snapshot(), blue, failures);
+        }
+
+        if (failures.isEmpty()) {
+            System.out.printf("ok: %d snapshots and %d routes checked by %d readers during %d edits%n",
+                    snapshots.get(), routes.get(), readers, edits);
+        } else {
+            failures.stream().limit(10).forEach(System.out::println);
+            System.out.printf("%d checks failed%n", failures.size());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Build a line of stations named with a prefix and their position.
+     */
+    private static MetroLine line(final String name, final String prefix, final int time, final int stations) {
+        Station   first = new Station(prefix + 0, name, time);
+        MetroLine line  = new MetroLine(name, first, first);
+        for (int position = 1; position < stations; position++) {
+            line.append(prefix + position, time);
+        }
+        return line;
+    }
+
+    /**
+     * Check that a snapshot holds the network after exactly its number of edits.
+     */
+    private static void checkSnapshot(final QueryService.Snapshot snapshot, final int blue,
+                                      final List<String> failures) {
+        long version  = snapshot.version();
+        int  appended = (int) ((version + 1) / 2);
+        var  graph    = snapshot.graph();
+        if (snapshot.stationIds().get("Red").size() != STATIONS + appended
+                || graph.size() != STATIONS + blue + appended) {
+            failures.add(String.format("version %d has %d stations, %d of them on Red", version, graph.size(),
+                    snapshot.stationIds().get("Red").size()));
+        }
+
+        int transfers = 0;
+        for (int id = 0; id < graph.size(); id++) {
+            for (int edge = graph.firstEdge(id); edge < graph.endEdge(id); edge++) {
+                if (graph.kind(edge) == MetroGraph.TRANSFER) {
+                    transfers++;
+                    if (!hasTransfer(graph, graph.target(edge), id)) {
+                        failures.add(String.format("version %d has a transfer from %s to %s without its way back",
+                                version, graph.station(id).getName(), graph.station(graph.target(edge)).getName()));
+                    }
+                }
+            }
+        }
+        if (transfers != 2 * (version / 2)) {
+            failures.add(String.format("version %d has %d transfer links", version, transfers));
+        }
+    }
+
+    private static boolean hasTransfer(final MetroGraph graph, final int from, final int to) {
+        for (int edge = graph.firstEdge(from); edge < graph.endEdge(from); edge++) {
+            if (graph.kind(edge) == MetroGraph.TRANSFER && graph.target(edge) == to) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check the fastest route to the newest station appended by a version.
+     *
+     * @return true if a route was checked
+     */
+    private static boolean checkRoute(final QueryService service, final long version, final List<String> failures) {
+        int appended = (int) ((version + 1) / 2);
+        if (appended == 0) {
+            return false;
+        }
+        String target = "X" + (2 * appended - 1);
+        try {
+            var route = service.fastestRoute("Red", "R0", "Red", target).get();
+            // later edits only add stations after the target, and a detour over Blue costs two transfers
+            int expected = (STATIONS - 1) * RED_TIME + RED_TIME + (appended - 1) * ADDED_TIME;
+            if (route.isEmpty() || route.get().time() != expected) {
+                failures.add(String.format("route to %s took %s minutes, expected %d", target,
+                        route.map(found -> String.valueOf(found.time())).orElse("no"), expected));
+                return true;
+            }
+            for (var station : route.get().stations()) {
+                if (station.getPrev() != null || station.getNext() != null || station.hasTransfers()) {
+                    failures.add("route to " + target + " shares station " + station.getName() + " with the lines");
+                    break;
+                }
+            }
+        } catch (ExecutionException e) {
+            failures.add("route to " + target + " failed: " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,172 @@
+package metro;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide counters for commands and route searches.
+ * <p>
+ * Every command records its latency in a {@link LatencyHistogram} and the bytes its thread allocated; every search
+ * that actually runs (cache hits don't) adds the stations it settled, the edges it scanned and its largest queue.
+ * Recording only touches atomics, so it is safe from any thread, including the {@link QueryService} pool. Route caches
+ * are registered by name and report their hits, misses and size. The totals are shown by the {@code /stats} command,
+ * or written to stderr as JSON every {@code metro.stats.interval} seconds.
+ */
+final class QueryStats {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private record CommandStats(LatencyHistogram latency, LongAdder allocated) {
+    }
+
+    private static final Map<String, CommandStats>  COMMANDS   = new ConcurrentSkipListMap<>();
+    private static final Map<String, RouteCache<?>> CACHES     = new ConcurrentSkipListMap<>();
+    private static final LongAdder                  SEARCHES   = new LongAdder();
+    private static final LongAdder                  SETTLED    = new LongAdder();
+    private static final LongAdder                  RELAXED    = new LongAdder();
+    private static final LongAccumulator            QUEUE_PEAK = new LongAccumulator(Math::max, 0);
+
+    private QueryStats() {
+    }
+
+    /**
+     * Bytes allocated so far by the calling thread.
+     *
+     * @return allocated bytes
+     */
+    static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Record a completed command.
+     *
+     * @param command
+     *         name of the command, such as {@code /route}
+     * @param nanos
+     *         time the command took
+     * @param allocated
+     *         bytes allocated while running it
+     */
+    static void recordCommand(final String command, final long nanos, final long allocated) {
+        var stats = COMMANDS.computeIfAbsent(command,
+                key -> new CommandStats(new LatencyHistogram(), new LongAdder()));
+        stats.latency().record(nanos);
+        stats.allocated().add(allocated);
+    }
+
+    /**
+     * Record the work of one route search.
+     *
+     * @param settled
+     *         stations taken off the queue
+     * @param relaxed
+     *         edges scanned
+     * @param queuePeak
+     *         largest number of stations queued at once
+     */
+    static void recordSearch(final int settled, final int relaxed, final int queuePeak) {
+        SEARCHES.increment();
+        SETTLED.add(settled);
+        RELAXED.add(relaxed);
+        QUEUE_PEAK.accumulate(queuePeak);
+    }
+
+    /**
+     * Report the counters of a route cache along with the other totals.
+     *
+     * @param name
+     *         name the cache is reported under, replacing any cache registered with it before
+     * @param cache
+     *         the cache
+     */
+    static void registerCache(final String name, final RouteCache<?> cache) {
+        CACHES.put(name, cache);
+    }
+
+    /**
+     * Human readable summary, one line per command and per cache followed by the search totals.
+     *
+     * @return the summary
+     */
+    static String text() {
+        var out = new StringBuilder();
+        COMMANDS.forEach((command, stats) -> {
+            var  latency = stats.latency();
+            long count   = latency.count();
+            out.append(String.format("%s: %d calls, mean %.1f us, p50 %.1f us, p99 %.1f us, %d B/call%n",
+                    command, count, latency.meanNanos() / 1e3, latency.percentileNanos(0.50) / 1e3,
+                    latency.percentileNanos(0.99) / 1e3, count == 0 ? 0 : stats.allocated().sum() / count));
+        });
+        CACHES.forEach((name, cache) -> out.append(String.format("%s cache: %d hits, %d misses, %d entries%n",
+                name, cache.getHits(), cache.getMisses(), cache.size())));
+        long searches = SEARCHES.sum();
+        out.append(String.format("searches: %d, settled %.1f/search, relaxed %.1f/search, queue peak %d%n",
+                searches, searches == 0 ? 0 : (double) SETTLED.sum() / searches,
+                searches == 0 ? 0 : (double) RELAXED.sum() / searches, QUEUE_PEAK.get()));
+        return out.toString();
+    }
+
+    /**
+     * Machine readable dump of all counters.
+     *
+     * @return the counters as a JSON object
+     */
+    static String json() {
+        var out = new StringWriter();
+        try (var json = new JsonWriter(out)) {
+            json.beginObject().name("commands").beginObject();
+            for (var entry : COMMANDS.entrySet()) {
+                var latency = entry.getValue().latency();
+                json.name(entry.getKey()).beginObject()
+                        .name("calls").value(latency.count())
+                        .name("meanMicros").value(latency.meanNanos() / 1e3)
+                        .name("p50Micros").value(latency.percentileNanos(0.50) / 1e3)
+                        .name("p99Micros").value(latency.percentileNanos(0.99) / 1e3)
+                        .name("allocatedBytes").value(entry.getValue().allocated().sum())
+                        .endObject();
+            }
+            json.endObject().name("caches").beginObject();
+            for (var entry : CACHES.entrySet()) {
+                json.name(entry.getKey()).beginObject()
+                        .name("hits").value(entry.getValue().getHits())
+                        .name("misses").value(entry.getValue().getMisses())
+                        .name("size").value(entry.getValue().size())
+                        .endObject();
+            }
+            json.endObject().name("searches").beginObject()
+                    .name("count").value(SEARCHES.sum())
+                    .name("settled").value(SETTLED.sum())
+                    .name("relaxed").value(RELAXED.sum())
+                    .name("queuePeak").value(QUEUE_PEAK.get())
+                    .endObject().endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Write {@link #json()} to stderr at a fixed rate from a daemon thread.
+     *
+     * @param seconds
+     *         time between dumps
+     */
+    static void dumpEvery(final long seconds) {
+        var timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            var thread = new Thread(task, "query-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(() -> System.err.println(json()), seconds, seconds, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,14 @@
+package metro;
+
+import java.util.List;
+
+/**
+ * A route found between two stations.
+ *
+ * @param stations
+ *         stations on the route in travel order, including both stations of each transfer
+ * @param time
+ *         total travel time of the route in minutes
+ */
+record Route(List<Station> stations, int time) {
+}
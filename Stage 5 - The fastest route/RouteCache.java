@@ -0,0 +1,89 @@
+package metro;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of route search results.
+ * <p>
+ * Results are keyed by the start and end line and station names and evicted in least recently used order once the
+ * cache is full. Every lookup passes the current version of the network; when it differs from the version the cached
+ * results were computed for, the cache is emptied first, so results never outlive an edit of the network.
+ *
+ * @param <V>
+ *         type of the cached results
+ */
+class RouteCache<V> {
+    static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Start and end of a route.
+     */
+    record Key(String startLine, String startStation, String endLine, String endStation) {
+    }
+
+    private final LinkedHashMap<Key, V> entries;
+
+    private long version;
+    private long hits;
+    private long misses;
+
+    RouteCache(final int capacity) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Get a cached result or compute and cache it.
+     * <p>
+     * The search runs outside the cache lock, so concurrent misses for the same key may both compute the result.
+     *
+     * @param key
+     *         start and end of the route
+     * @param networkVersion
+     *         current version of the network
+     * @param search
+     *         computes the result on a miss
+     *
+     * @return the cached or newly computed result
+     */
+    V get(final Key key, final long networkVersion, final Function<Key, V> search) {
+        synchronized (this) {
+            if (networkVersion != version) {
+                entries.clear();
+                version = networkVersion;
+            }
+            V cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+
+        V result = search.apply(key);
+        synchronized (this) {
+            if (networkVersion == version && result != null) {
+                entries.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
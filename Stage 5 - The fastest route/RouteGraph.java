@@ -0,0 +1,50 @@
+package metro;
+
+/**
+ * Read-only view of a metro network as a graph of int station ids.
+ * <p>
+ * The edges leaving station {@code id} are numbered from {@link #firstEdge(int)} up to (but not including)
+ * {@link #endEdge(int)}. Route searches only need this view, so they run the same way over a {@link MetroGraph}
+ * compiled in memory and over a {@link MappedNetwork} served from a compiled map file.
+ */
+interface RouteGraph {
+    /**
+     * Number of stations in the graph.
+     *
+     * @return station count
+     */
+    int size();
+
+    int firstEdge(int id);
+
+    int endEdge(int id);
+
+    int target(int edge);
+
+    /**
+     * Travel time of an edge.
+     *
+     * @param edge
+     *         edge index
+     *
+     * @return minutes needed to travel the edge
+     */
+    int weight(int edge);
+
+    /**
+     * Kind of an edge.
+     *
+     * @param edge
+     *         edge index
+     *
+     * @return {@link MetroGraph#NEXT}, {@link MetroGraph#PREV} or {@link MetroGraph#TRANSFER}
+     */
+    byte kind(int edge);
+
+    /**
+     * Working arrays for a search on this graph, private to the calling thread.
+     *
+     * @return the scratch space of the current thread
+     */
+    SearchScratch scratch();
+}
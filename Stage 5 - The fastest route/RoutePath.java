@@ -0,0 +1,12 @@
+package metro;
+
+/**
+ * A route found in a {@link RouteGraph}, as station ids.
+ *
+ * @param stations
+ *         ids of the stations on the route in travel order
+ * @param time
+ *         total travel time of the route in minutes
+ */
+record RoutePath(int[] stations, int time) {
+}
@@ -0,0 +1,50 @@
+package metro;
+
+import java.util.Arrays;
+
+/**
+ * Reusable working arrays for searches over a {@link MetroGraph}.
+ * <p>
+ * Each thread gets its own instance from {@link MetroGraph#scratch()}, sized to the graph. Instead of clearing the
+ * visited flags before every search, each search bumps an epoch and a station counts as visited only when its mark
+ * equals the current epoch, so starting a search costs constant time.
+ */
+final class SearchScratch {
+    final int[] queue;
+    final int[] predecessor;
+
+    private final int[] mark;
+    private int         epoch;
+
+    SearchScratch(final int size) {
+        this.queue = new int[size];
+        this.predecessor = new int[size];
+        this.mark = new int[size];
+    }
+
+    /**
+     * Start a new search, forgetting every station visited so far.
+     */
+    void reset() {
+        if (++epoch == 0) {  // the epoch wrapped around, so old marks could match again
+            Arrays.fill(mark, 0);
+            epoch = 1;
+        }
+    }
+
+    /**
+     * Mark a station as visited.
+     *
+     * @param id
+     *         station id
+     *
+     * @return true if the station had not been visited yet in this search
+     */
+    boolean visit(final int id) {
+        if (mark[id] == epoch) {
+            return false;
+        }
+        mark[id] = epoch;
+        return true;
+    }
+}
@@ -0,0 +1,141 @@
+package metro;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Answers commands through a {@link QueryService}, searching routes on several threads.
+ * <p>
+ * Route queries are handed to the service and the next command is read without waiting for the answer. Each query is
+ * answered for the network as it was when the query was read, so later edits don't change its answer. Answers are
+ * printed in the order of the commands, as soon as every earlier answer is out, and all of them are printed before
+ * waiting for more input. Only the commands the service offers are supported.
+ */
+class ServiceController {
+    private final QueryService  service;
+    private final CommandParser parser;
+
+    private final ArrayDeque<CompletableFuture<Runnable>> answers = new ArrayDeque<>();
+
+    ServiceController(final QueryService service, final CommandParser parser) {
+        this.service = service;
+        this.parser = parser;
+    }
+
+    void start() {
+        boolean processCommands = true;
+
+        // answers are buffered, so they must reach stdout even when a command throws
+        try {
+            while (processCommands) {
+                if (!parser.hasInput()) {
+                    printAnswers(true);
+                }
+                var command = parser.getCommand();
+                switch (command.get(0)) {
+                    case "/exit" -> processCommands = false;
+
+                    case "/append", "/add-head" -> {
+                        if (command.size() == 3 || command.size() == 4) {
+                            var time = command.size() == 4 ? Integer.parseInt(command.get(3)) : 0;
+                            edit(() -> {
+                                if (command.get(0).equals("/append")) {
+                                    service.append(command.get(1), command.get(2), time);
+                                } else {
+                                    service.addHead(command.get(1), command.get(2), time);
+                                }
+                            });
+                        } else {
+                            answer(String.format("Invalid format! Command should be: %s LINE STATION [TIME]",
+                                    command.get(0)));
+                        }
+                    }
+                    case "/remove" -> {
+                        if (command.size() == 3) {
+                            edit(() -> service.remove(command.get(1), command.get(2)));
+                        } else {
+                            answer("Invalid format! Command should be: /remove LINE STATION");
+                        }
+                    }
+                    case "/connect" -> {
+                        if (command.size() == 5) {
+                            edit(() -> service.connect(command.get(1), command.get(2), command.get(3),
+                                    command.get(4)));
+                        } else {
+                            answer("Invalid format! Command should be: /connect LINE1 STATION1 LINE2 STATION2");
+                        }
+                    }
+
+                    case "/route", "/fastest-route" -> {
+                        if (command.size() == 5) {
+                            boolean fastest      = command.get(0).equals("/fastest-route");
+                            var     startLine    = command.get(1);
+                            var     startStation = command.get(2);
+                            var     endLine      = command.get(3);
+                            var     endStation   = command.get(4);
+                            var route = fastest
+                                    ? service.fastestRoute(startLine, startStation, endLine, endStation)
+                                    : service.route(startLine, startStation, endLine, endStation);
+                            answers.add(route.handle((found, failure) -> () -> printRoute(found, failure, fastest)));
+                        } else {
+                            answer(String.format("Invalid format! Command should be: " +
+                                    "%s START_LINE START_STATION END_LINE END_STATION", command.get(0)));
+                        }
+                    }
+
+                    default -> answer(String.format("The %s command is not supported with --threads.",
+                            command.get(0)));
+                }
+                printAnswers(false);
+            }
+            printAnswers(true);
+        } finally {
+            OutputSink.stdout().flush();
+        }
+    }
+
+    /**
+     * Apply an edit now, queueing its error message, if any, behind the answers still to come.
+     */
+    private void edit(final Runnable change) {
+        try {
+            change.run();
+        } catch (IllegalArgumentException e) {
+            answer(e.getMessage());
+        }
+    }
+
+    private void answer(final String message) {
+        answers.add(CompletableFuture.completedFuture(() -> System.out.println(message)));
+    }
+
+    /**
+     * Print the answers that are ready, in command order.
+     *
+     * @param all
+     *         wait for the answers still being searched for as well
+     */
+    private void printAnswers(final boolean all) {
+        while (!answers.isEmpty() && (all || answers.peek().isDone())) {
+            answers.remove().join().run();
+        }
+    }
+
+    private static void printRoute(final Optional<Route> route, final Throwable failure, final boolean fastest) {
+        if (failure != null) {
+            var cause = failure instanceof CompletionException ? failure.getCause() : failure;
+            if (!(cause instanceof IllegalArgumentException)) {
+                throw new CompletionException(cause);
+            }
+            System.out.println(cause.getMessage());
+        } else if (route.isEmpty()) {
+            System.out.println("No route exists!");
+        } else {
+            Controller.printRoute(route.get().stations());
+            if (fastest) {
+                Controller.printTotal(route.get().time());
+            }
+        }
+    }
+}
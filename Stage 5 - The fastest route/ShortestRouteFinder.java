@@ -0,0 +1,87 @@
+package metro;
+
+/**
+ * Finds the route with the fewest stops between two stations.
+ * <p>
+ * Runs a breadth first search over a {@link RouteGraph}, using an int queue and a parent array from the
+ * calling thread's {@link SearchScratch}. The only thing allocated per query is the resulting route.
+ */
+class ShortestRouteFinder {
+    private final RouteGraph graph;
+
+    ShortestRouteFinder(final RouteGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Find the route with the fewest stops between two stations.
+     *
+     * @param startId
+     *         id of the station to start the search from
+     * @param endId
+     *         id of the station to end the search at
+     *
+     * @return the route or null if the end can't be reached from the start
+     */
+    RoutePath find(final int startId, final int endId) {
+        SearchScratch scratch     = graph.scratch();
+        int[]         queue       = scratch.queue;
+        int[]         predecessor = scratch.predecessor;
+        int           head        = 0;
+        int           tail        = 0;
+        int           relaxed     = 0;
+        int           peak        = 1;
+
+        scratch.reset();
+        scratch.visit(startId);
+        predecessor[startId] = -1;
+        queue[tail++] = startId;
+
+        while (head < tail) {
+            int id = queue[head++];
+            if (id == endId) {
+                QueryStats.recordSearch(head, relaxed, peak);
+                return buildRoute(predecessor, endId);
+            }
+
+            for (int edge = graph.firstEdge(id); edge < graph.endEdge(id); edge++) {
+                relaxed++;
+                int target = graph.target(edge);
+                if (scratch.visit(target)) {
+                    predecessor[target] = id;
+                    queue[tail++] = target;
+                    peak = Math.max(peak, tail - head);
+                }
+            }
+        }
+
+        QueryStats.recordSearch(head, relaxed, peak);
+        return null;
+    }
+
+    private RoutePath buildRoute(final int[] predecessor, final int endId) {
+        int time   = 0;
+        int length = 0;
+        for (int id = endId; id != -1; id = predecessor[id]) {
+            length++;
+        }
+        int[] path = new int[length];
+        for (int id = endId; id != -1; id = predecessor[id]) {
+            path[--length] = id;
+        }
+        for (int index = 1; index < path.length; index++) {
+            time += edgeTime(path[index - 1], path[index]);
+        }
+        return new RoutePath(path, time);
+    }
+
+    private int edgeTime(final int from, final int to) {
+        int time = Integer.MAX_VALUE;
+        for (int edge = graph.firstEdge(from); edge < graph.endEdge(from); edge++) {
+            if (graph.target(edge) == to) {
+                time = Math.min(time, graph.weight(edge));
+            }
+        }
+        return time;
+    }
+}
@@ -1,11 +1,14 @@
 package metro;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 public class Station {
     private final String name;
     private final String line;
     private final int    time;
+    private final byte[] nameBytes;
+    private byte[]       lineBytes;
 
     private LinkedList<Station> prev;
     private LinkedList<Station> next;
@@ -20,6 +23,7 @@ public class Station {
         this.name = name;
         this.line = line;
         this.time = time;
+        this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
         this.next = null;
         this.prev = null;
     }
@@ -28,6 +32,15 @@ public class Station {
         return name;
     }
 
+    /**
+     * Get the name of the station as UTF-8, encoded once when the station is created.
+     *
+     * @return UTF-8 bytes of the name, not to be modified
+     */
+    byte[] getNameBytes() {
+        return nameBytes;
+    }
+
     void setTransfers(final Station station) {
         transfers.add(station);
     }
@@ -72,6 +85,18 @@ public class Station {
         return line;
     }
 
+    /**
+     * Get the name of the line as UTF-8, encoded on first use.
+     *
+     * @return UTF-8 bytes of the line name, not to be modified
+     */
+    byte[] getLineBytes() {
+        if (lineBytes == null) {
+            lineBytes = line.getBytes(StandardCharsets.UTF_8);
+        }
+        return lineBytes;
+    }
+
     int getTime() {
         return time;
     }
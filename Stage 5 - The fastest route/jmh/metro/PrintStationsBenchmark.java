@@ -0,0 +1,58 @@
+package metro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code /output} command: {@link MetroLine#printStations(OutputSink)} writing to a sink whose channel drops the
+ * bytes. Every {@code transferEvery}-th station has a transfer to a second line, so the transfer listing is measured
+ * too. Run with the gc profiler to see the allocations per listing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PrintStationsBenchmark {
+    @Param({"50", "500"})
+    int stations;
+
+    @Param({"5"})
+    int transferEvery;
+
+    private final OutputSink out = new OutputSink(Channels.newChannel(OutputStream.nullOutputStream()));
+
+    private MetroLine line;
+
+    @Setup
+    public void build() {
+        line = line("Metropolitan", "Station ");
+        MetroLine other = line("Jubilee", "Stop ");
+        for (int position = 0; position < stations; position += transferEvery) {
+            line.connect(line.getStation("Station " + position), other.getStation("Stop " + position));
+        }
+    }
+
+    @Benchmark
+    public OutputSink printStations() {
+        line.printStations(out);
+        return out;
+    }
+
+    private MetroLine line(final String name, final String prefix) {
+        Station   first = new Station(prefix + 0, name, 1);
+        MetroLine built = new MetroLine(name, first, first);
+        for (int position = 1; position < stations; position++) {
+            built.append(prefix + position, 1);
+        }
+        return built;
+    }
+}
@@ -0,0 +1,111 @@
+package metro;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Map loading through {@link FileOperations#readJSONFile}, and the {@code /route} and {@code /fastest-route} searches
+ * on the compiled network. The map has {@code lines} straight lines of {@code stations} stations, and every
+ * {@code transferEvery}-th station has a transfer to the same station of the next line. Sample time mode reports the
+ * latency percentiles of each call, and the gc profiler its allocations. The queries cycle through a fixed set of
+ * random station pairs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RouteBenchmark {
+    private static final int QUERIES = 256;
+
+    @Param({"20"})
+    int lines;
+
+    @Param({"50"})
+    int stations;
+
+    @Param({"10"})
+    int transferEvery;
+
+    private Path       map;
+    private MetroGraph graph;
+
+    private final int[][] workload = new int[QUERIES][];
+    private       int     next;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        JsonObject network = new JsonObject();
+        for (int line = 0; line < lines; line++) {
+            JsonObject stationObjects = new JsonObject();
+            for (int position = 0; position < stations; position++) {
+                JsonArray transfers = new JsonArray();
+                if (position % transferEvery == 0) {
+                    for (int other : new int[]{line - 1, line + 1}) {
+                        if (other >= 0 && other < lines) {
+                            JsonObject transfer = new JsonObject();
+                            transfer.addProperty("line", "Line " + other);
+                            transfer.addProperty("station", other + "-" + position);
+                            transfers.add(transfer);
+                        }
+                    }
+                }
+                JsonObject station = new JsonObject();
+                station.addProperty("name", line + "-" + position);
+                station.add("transfer", transfers);
+                station.addProperty("time", 1 + position % 5);
+                stationObjects.add(String.valueOf(position + 1), station);
+            }
+            network.add("Line " + line, stationObjects);
+        }
+        map = Files.createTempFile("metro-benchmark", ".json");
+        Files.writeString(map, network.toString());
+
+        graph = MetroGraph.compile(load().values());
+        Random random = new Random(7);
+        for (int query = 0; query < QUERIES; query++) {
+            workload[query] = new int[]{random.nextInt(graph.size()), random.nextInt(graph.size())};
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(map);
+    }
+
+    @Benchmark
+    public HashMap<String, MetroLine> load() {
+        return FileOperations.readJSONFile(map.toString());
+    }
+
+    @Benchmark
+    public RoutePath route() {
+        int[] query = nextQuery();
+        return new ShortestRouteFinder(graph).find(query[0], query[1]);
+    }
+
+    @Benchmark
+    public RoutePath fastestRoute() {
+        int[] query = nextQuery();
+        return new FastestRouteFinder(graph).find(query[0], query[1]);
+    }
+
+    private int[] nextQuery() {
+        next = (next + 1) % QUERIES;
+        return workload[next];
+    }
+}
@@ -0,0 +1,111 @@
+package metro;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Answers a file of route commands in one run.
+ * <p>
+ * Each line of the file holds a {@code /route} or
+ * {@code /fastest-route} command in the interactive syntax, and is
+ * answered by the same search and route caches the interactive command
+ * uses, so both give the same route for the same query. Queries are
+ * grouped by command and start station and the groups run in parallel
+ * on a {@link ForkJoinPool}, each on one thread, so the queries of a
+ * start share that thread's search arrays. The answers are written in
+ * input order through the {@link OutputSink}.
+ */
+final class BatchRunner {
+    private record Query(int index, boolean fastest, String[] commands) {
+    }
+
+    private BatchRunner() {
+    }
+
+    static void run(LinkedHashMap<String, HyperMetro> metroMap,
+                    Path queryFile) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(queryFile);
+        } catch (IOException e) {
+            System.out.println("Error! Such a file doesn't exist!");
+            return;
+        }
+        String[] answers = new String[lines.size()];
+        Map<Long, List<Query>> groups = new HashMap<>();
+        for (int index = 0; index < lines.size(); index++) {
+            var commands = Main.tokenize(lines.get(index));
+            if (commands.length == 0 || "/exit".equals(commands[0])) {
+                answers[index] = "";
+            } else if (!Main.isRouteCommand(commands, metroMap)) {
+                answers[index] = "Invalid command." + System.lineSeparator();
+            } else {
+                var start = metroMap.get(commands[1]).findStation(commands[2]);
+                var end = metroMap.get(commands[3]).findStation(commands[4]);
+                if (start.isEmpty() || end.isEmpty()) {
+                    answers[index] = "No route exists!" + System.lineSeparator();
+                } else {
+                    boolean fastest = "/fastest-route".equals(commands[0]);
+                    var query = new Query(index, fastest, commands);
+                    long group = 2L * start.get().getId() + (fastest ? 1 : 0);
+                    groups.computeIfAbsent(group, key -> new ArrayList<>())
+                            .add(query);
+                }
+            }
+        }
+
+        var pool = new ForkJoinPool();
+        try {
+            pool.submit(() -> groups.values()
+                    .parallelStream()
+                    .forEach(group -> answer(metroMap, group, answers)))
+                    .get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        var out = OutputSink.stdout();
+        for (var answer : answers) {
+            out.bytes(answer.getBytes(StandardCharsets.UTF_8));
+        }
+        out.flush();
+    }
+
+    private static void answer(Map<String, HyperMetro> metroMap,
+                               List<Query> group,
+                               String[] answers) {
+        for (var query : group) {
+            var commands = query.commands();
+            var first = metroMap.get(commands[1]);
+            var second = metroMap.get(commands[3]);
+            String answer;
+            if (query.fastest()) {
+                answer = HyperMetro.cachedFastestRoute(first, commands[2],
+                                second, commands[4])
+                        .map(route -> {
+                            var entry = route.entrySet().iterator().next();
+                            return HyperMetro.formatRoute(entry.getValue())
+                                    + HyperMetro.formatTotal(entry.getKey());
+                        })
+                        .orElse(null);
+            } else {
+                answer = HyperMetro.cachedRoute(first, commands[2],
+                                second, commands[4])
+                        .map(HyperMetro::formatRoute)
+                        .orElse(null);
+            }
+            answers[query.index()] = answer != null ? answer :
+                    "No route exists!" + System.lineSeparator();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package metro;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * Measures the hot paths of the route planner on a synthetic map.
+ * <p>
+ * Usage: {@code Benchmark [lines] [stationsPerLine] [branchesPerLine]
+ * [transferDensity] [queries]}. Compares the search strategies by the
+ * stations they settle and the preprocessed tables by their build time
+ * and size, and reports throughput, latency percentiles and bytes
+ * allocated per operation for each, after a warm-up round of the same
+ * operations. Loading and the {@code /route} and
+ * {@code /fastest-route} calls themselves are JMH benchmarks, see
+ * {@code jmh/metro/RouteBenchmark}.
+ */
+final class Benchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean)
+                    ManagementFactory.getThreadMXBean();
+    private static final int MATRIX_MAX_STATIONS = 2000;
+    private static int sink;
+
+    private Benchmark() {
+    }
+
+    private record Query(HyperMetro from, String go,
+                         HyperMetro to, String stop) {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int lines = intArg(args, 0, 20);
+        int stations = intArg(args, 1, 50);
+        int branches = intArg(args, 2, 2);
+        double density = args.length > 3 ? Double.parseDouble(args[3]) : 0.1;
+        int queries = intArg(args, 4, 2000);
+
+        Path map = Files.createTempFile("metro-benchmark", ".json");
+        try {
+            try (var out = Files.newBufferedWriter(map)) {
+                new MapGenerator(lines, stations, branches, density, 42)
+                        .write(out);
+            }
+            System.out.printf("map: %d lines, %d stations per line, "
+                            + "%d branches per line, transfer density %.2f, "
+                            + "%,d bytes%n",
+                    lines, stations, branches, density, Files.size(map));
+            run(map, queries);
+        } finally {
+            Files.deleteIfExists(map);
+        }
+    }
+
+    private static void run(Path map, int queries) throws IOException {
+        var lineMap = load(map);
+        var graph = MetroGraph.compile(lineMap.values());
+        System.out.printf("graph: %,d stations, %,d edges%n",
+                graph.size(), graph.edgeCount());
+
+        var random = new Random(7);
+        var lineList = new ArrayList<>(lineMap.values());
+        Query[] workload = new Query[queries];
+        for (int i = 0; i < queries; i++) {
+            var from = lineList.get(random.nextInt(lineList.size()));
+            var to = lineList.get(random.nextInt(lineList.size()));
+            workload[i] = new Query(from, pick(from, random),
+                    to, pick(to, random));
+        }
+
+        checkMinutesToAll(workload);
+        measure("minutes to all", queries, i -> {
+            var q = workload[i];
+            return q.from().minutesToAll(q.go());
+        });
+
+        int[][] ends = new int[queries][];
+        for (int i = 0; i < queries; i++) {
+            var q = workload[i];
+            ends[i] = new int[]{
+                    q.from().findStation(q.go()).orElseThrow().getId(),
+                    q.to().findStation(q.stop()).orElseThrow().getId()};
+        }
+        settled("route 1-way", ends,
+                (from, to) -> graph.fewestStops(from, to));
+        settled("route 2-way", ends,
+                (from, to) -> graph.bidirectional(from, to, true));
+        settled("fastest 1-way", ends,
+                (from, to) -> graph.fastest(from, to));
+        settled("fastest 2-way", ends,
+                (from, to) -> graph.bidirectional(from, to, false));
+        var landmarks = Landmarks.select(graph, Landmarks.DEFAULT_COUNT);
+        settled("fastest A*", ends,
+                (from, to) -> graph.fastest(from, to, landmarks));
+
+        var hierarchy = ContractionHierarchy.build(graph);
+        System.out.printf("ch build       %,12.1f ms  %,d shortcuts  "
+                        + "%,d bytes%n",
+                hierarchy.buildNanos() / 1e6,
+                hierarchy.shortcutCount(),
+                hierarchy.memoryBytes());
+        settled("fastest CH", ends, hierarchy::fastest);
+
+        // the table is quadratic, so only for maps of a sensible size
+        if (graph.size() <= MATRIX_MAX_STATIONS) {
+            var matrix = TravelTimeMatrix.build(graph);
+            System.out.printf("matrix build   %,12.1f ms  %,d bytes%n",
+                    matrix.buildNanos() / 1e6, matrix.memoryBytes());
+            measure("fastest matrix", queries,
+                    i -> matrix.path(ends[i][0], ends[i][1]));
+        }
+
+        ArrayList<ArrayList<HyperMetro.Station>> routes = new ArrayList<>();
+        for (var q : workload) {
+            HyperMetro.route(q.from(), q.go(), q.to(), q.stop())
+                    .ifPresent(routes::add);
+        }
+        if (!routes.isEmpty()) {
+            // the route is written as the commands write it, to a sink
+            // whose channel drops the bytes
+            var out = new OutputSink(Channels.newChannel(
+                    OutputStream.nullOutputStream()));
+            measure("print route", queries, i -> {
+                HyperMetro.writeRoute(routes.get(i % routes.size()), out);
+                return out;
+            });
+        }
+    }
+
+    /**
+     * Checks that one search from the start of every query agrees with
+     * the fastest route to its end, and that the isochrone with the
+     * route's minutes as budget holds exactly the stations that near.
+     */
+    private static void checkMinutesToAll(Query[] workload) {
+        for (var q : workload) {
+            int[] minutes = q.from().minutesToAll(q.go()).orElseThrow();
+            var end = q.to().findStation(q.stop()).orElseThrow();
+            int expected = HyperMetro.fastestRoute(
+                            q.from(), q.go(), q.to(), q.stop())
+                    .map(route -> route.keySet().iterator().next())
+                    .orElse(Integer.MAX_VALUE);
+            if (minutes[end.getId()] != expected) {
+                throw new IllegalStateException(String.format(
+                        "%s to %s: %d minutes to all, %d fastest",
+                        q.go(), q.stop(), minutes[end.getId()], expected));
+            }
+            if (expected == Integer.MAX_VALUE) {
+                continue;
+            }
+            var isochrone = q.from().isochrone(q.go(), expected)
+                    .orElseThrow();
+            long within = Arrays.stream(minutes)
+                    .filter(time -> time <= expected)
+                    .count();
+            if (!Integer.valueOf(expected).equals(isochrone.get(end))
+                    || isochrone.size() != within) {
+                throw new IllegalStateException(String.format(
+                        "%s to %s: isochrone of %d minutes disagrees",
+                        q.go(), q.stop(), expected));
+            }
+        }
+        System.out.printf("minutes to all and isochrone agree with "
+                + "%,d fastest routes%n", workload.length);
+    }
+
+    /**
+     * Times a graph search over the query end points and prints the
+     * mean number of stations it settled per query.
+     */
+    private static void settled(String name,
+                                int[][] ends,
+                                IntBinaryOperator<SearchResult> search) {
+        long total = 0;
+        for (var pair : ends) {
+            total += search.apply(pair[0], pair[1]).settled();
+        }
+        measure(name, ends.length,
+                i -> search.apply(ends[i][0], ends[i][1]));
+        System.out.printf("%-14s %,12.1f settled/query%n",
+                name, (double) total / ends.length);
+    }
+
+    @FunctionalInterface
+    private interface IntBinaryOperator<R> {
+        R apply(int from, int to);
+    }
+
+    private static LinkedHashMap<String, HyperMetro> load(Path map) {
+        try (var reader = new JsonReader(Files.newBufferedReader(map))) {
+            return MapLoader.load(reader);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String pick(HyperMetro line, Random random) {
+        var names = line.getStations().stream()
+                .map(HyperMetro.Station::getName)
+                .sorted()
+                .toList();
+        return names.get(random.nextInt(names.size()));
+    }
+
+    /**
+     * Runs {@code operation} for indexes {@code 0..count-1} once to warm
+     * up and once measured, then prints the results.
+     */
+    private static void measure(String name,
+                                int count,
+                                IntFunction<Object> operation) {
+        for (int i = 0; i < count; i++) {
+            sink += Objects.hashCode(operation.apply(i));
+        }
+
+        long[] latencies = new long[count];
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+        long started = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long opStarted = System.nanoTime();
+            sink += Objects.hashCode(operation.apply(i));
+            latencies[i] = System.nanoTime() - opStarted;
+        }
+        long elapsed = System.nanoTime() - started;
+        long allocated = THREADS.getThreadAllocatedBytes(thread)
+                - allocatedBefore;
+
+        Arrays.sort(latencies);
+        System.out.printf("%-14s %,12.1f ops/s  p50 %,9.1f us  p90 %,9.1f us  "
+                        + "p99 %,9.1f us  max %,9.1f us  %,12d B/op%n",
+                name,
+                count * 1e9 / elapsed,
+                percentile(latencies, 0.50),
+                percentile(latencies, 0.90),
+                percentile(latencies, 0.99),
+                latencies[count - 1] / 1e3,
+                allocated / count);
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e3;
+    }
+
+    private static int intArg(String[] args, int index, int fallback) {
+        return args.length > index ? Integer.parseInt(args[index]) : fallback;
+    }
+}
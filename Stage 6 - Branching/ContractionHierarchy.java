@@ -0,0 +1,391 @@
+package metro;
+
+import java.util.*;
+
+/**
+ * Contraction hierarchy over a {@link MetroGraph} for fast fastest
+ * route queries.
+ * <p>
+ * Preprocessing contracts the stations one by one, least important
+ * first (by edge difference plus the number of contracted neighbours).
+ * Contracting a station removes it from the remaining graph and adds a
+ * shortcut between two of its neighbours whenever the route through it
+ * is the only shortest one, which a small local witness search checks.
+ * A query then runs Dijkstra from both ends that only ever climbs to
+ * more important stations, so it settles a few dozen stations even on
+ * large networks. Shortcuts remember the two edges they replace, which
+ * unpacks a route back into stations.
+ */
+final class ContractionHierarchy {
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+
+    private final MetroGraph graph;
+    private final int[] rank;
+    // every edge, original or shortcut
+    private final int[] edgeFrom;
+    private final int[] edgeTo;
+    private final int[] edgeWeight;
+    private final int[] edgeFirst;
+    private final int[] edgeSecond;
+    // edges to more important stations, by source
+    private final int[] upOffsets;
+    private final int[] upEdges;
+    // edges from more important stations, by target
+    private final int[] downOffsets;
+    private final int[] downEdges;
+    private final int shortcuts;
+    private final long buildNanos;
+    private final ThreadLocal<SearchScratch[]> scratch;
+
+    private ContractionHierarchy(MetroGraph graph,
+                                 Builder builder,
+                                 long buildNanos) {
+        this.graph = graph;
+        this.rank = builder.rank;
+        int edges = builder.edgeCount;
+        this.edgeFrom = Arrays.copyOf(builder.from, edges);
+        this.edgeTo = Arrays.copyOf(builder.to, edges);
+        this.edgeWeight = Arrays.copyOf(builder.weight, edges);
+        this.edgeFirst = Arrays.copyOf(builder.first, edges);
+        this.edgeSecond = Arrays.copyOf(builder.second, edges);
+        this.shortcuts = edges - graph.edgeCount();
+        this.buildNanos = buildNanos;
+
+        int size = graph.size();
+        upOffsets = new int[size + 1];
+        downOffsets = new int[size + 1];
+        for (int edge = 0; edge < edges; edge++) {
+            if (rank[edgeTo[edge]] > rank[edgeFrom[edge]]) {
+                upOffsets[edgeFrom[edge] + 1]++;
+            } else {
+                downOffsets[edgeTo[edge] + 1]++;
+            }
+        }
+        for (int id = 0; id < size; id++) {
+            upOffsets[id + 1] += upOffsets[id];
+            downOffsets[id + 1] += downOffsets[id];
+        }
+        upEdges = new int[upOffsets[size]];
+        downEdges = new int[downOffsets[size]];
+        int[] upFill = Arrays.copyOf(upOffsets, size);
+        int[] downFill = Arrays.copyOf(downOffsets, size);
+        for (int edge = 0; edge < edges; edge++) {
+            if (rank[edgeTo[edge]] > rank[edgeFrom[edge]]) {
+                upEdges[upFill[edgeFrom[edge]]++] = edge;
+            } else {
+                downEdges[downFill[edgeTo[edge]]++] = edge;
+            }
+        }
+        scratch = ThreadLocal.withInitial(() -> new SearchScratch[]{
+                new SearchScratch(size, 0),
+                new SearchScratch(size, 0)});
+    }
+
+    static ContractionHierarchy build(MetroGraph graph) {
+        long started = System.nanoTime();
+        var builder = new Builder(graph);
+        builder.contractAll();
+        return new ContractionHierarchy(graph, builder,
+                System.nanoTime() - started);
+    }
+
+    int shortcutCount() {
+        return shortcuts;
+    }
+
+    long buildNanos() {
+        return buildNanos;
+    }
+
+    /**
+     * Approximate heap taken by the hierarchy, in bytes.
+     */
+    long memoryBytes() {
+        long ints = rank.length
+                + 5L * edgeFrom.length
+                + upOffsets.length + upEdges.length
+                + downOffsets.length + downEdges.length;
+        return 4 * ints;
+    }
+
+    /**
+     * Fastest route from {@code source} to {@code target}, identical in
+     * minutes to a Dijkstra search on the original graph.
+     */
+    SearchResult fastest(int source, int target) {
+        var work = scratch.get();
+        var forward = work[0];
+        var backward = work[1];
+        forward.reset();
+        backward.reset();
+        forward.reach(source, 0, -1);
+        forward.heap.push(source, 0);
+        backward.reach(target, 0, -1);
+        backward.heap.push(target, 0);
+        int best = Integer.MAX_VALUE;
+        int meet = -1;
+        int settled = 0;
+        int relaxed = 0;
+        int peak = 2;
+        boolean forwardTurn = true;
+        while (true) {
+            boolean canForward = !forward.heap.isEmpty()
+                    && forward.heap.peekKey() < best;
+            boolean canBackward = !backward.heap.isEmpty()
+                    && backward.heap.peekKey() < best;
+            if (!canForward && !canBackward) {
+                break;
+            }
+            boolean goForward = canForward && (forwardTurn || !canBackward);
+            forwardTurn = !goForward;
+            var side = goForward ? forward : backward;
+            var other = goForward ? backward : forward;
+            int id = side.heap.pop();
+            side.settle(id);
+            settled++;
+            int cost = side.cost[id];
+            int otherCost = other.cost(id);
+            if (otherCost != Integer.MAX_VALUE && cost + otherCost < best) {
+                best = cost + otherCost;
+                meet = id;
+            }
+            int[] offsets = goForward ? upOffsets : downOffsets;
+            int[] edges = goForward ? upEdges : downEdges;
+            int[] ends = goForward ? edgeTo : edgeFrom;
+            for (int slot = offsets[id]; slot < offsets[id + 1]; slot++) {
+                relaxed++;
+                int edge = edges[slot];
+                int next = ends[edge];
+                int time = cost + edgeWeight[edge];
+                if (time < side.cost(next)) {
+                    side.reach(next, time, edge);
+                    side.heap.push(next, time);
+                    peak = Math.max(peak, forward.heap.size()
+                            + backward.heap.size());
+                }
+            }
+        }
+        forward.heap.clear();
+        backward.heap.clear();
+        if (meet < 0) {
+            return SearchResult.notFound(settled, relaxed, peak);
+        }
+
+        ArrayList<HyperMetro.Station> path = new ArrayList<>();
+        ArrayDeque<Integer> climb = new ArrayDeque<>();
+        for (int edge = forward.predecessor[meet]; edge != -1;
+             edge = forward.predecessor[edgeFrom[edge]]) {
+            climb.push(edge);
+        }
+        path.add(graph.station(source));
+        for (int edge : climb) {
+            unpack(edge, path);
+        }
+        for (int edge = backward.predecessor[meet]; edge != -1;
+             edge = backward.predecessor[edgeTo[edge]]) {
+            unpack(edge, path);
+        }
+        return new SearchResult(path, best, settled, relaxed, peak);
+    }
+
+    /**
+     * Appends the stations after the start of {@code edge}, expanding
+     * shortcuts into the original edges they stand for.
+     */
+    private void unpack(int edge, ArrayList<HyperMetro.Station> path) {
+        if (edgeFirst[edge] < 0) {
+            path.add(graph.station(edgeTo[edge]));
+        } else {
+            unpack(edgeFirst[edge], path);
+            unpack(edgeSecond[edge], path);
+        }
+    }
+
+    /**
+     * Mutable graph used while contracting.
+     */
+    private static final class Builder {
+        final int size;
+        final int[] rank;
+        final boolean[] contracted;
+        final int[] contractedNeighbours;
+        final List<List<Integer>> out = new ArrayList<>();
+        final List<List<Integer>> in = new ArrayList<>();
+        int[] from;
+        int[] to;
+        int[] weight;
+        int[] first;
+        int[] second;
+        int edgeCount;
+        // witness search state, reused between searches
+        final int[] witnessCost;
+        final int[] witnessMark;
+        final IndexedMinHeap witnessQueue;
+        int witnessEpoch;
+
+        Builder(MetroGraph graph) {
+            size = graph.size();
+            rank = new int[size];
+            contracted = new boolean[size];
+            contractedNeighbours = new int[size];
+            int capacity = Math.max(16, graph.edgeCount() * 2);
+            from = new int[capacity];
+            to = new int[capacity];
+            weight = new int[capacity];
+            first = new int[capacity];
+            second = new int[capacity];
+            for (int id = 0; id < size; id++) {
+                out.add(new ArrayList<>());
+                in.add(new ArrayList<>());
+            }
+            for (int id = 0; id < size; id++) {
+                for (int edge = graph.firstEdge(id);
+                     edge < graph.endEdge(id); edge++) {
+                    addEdge(id, graph.target(edge), graph.weight(edge), -1, -1);
+                }
+            }
+            witnessCost = new int[size];
+            witnessMark = new int[size];
+            witnessQueue = new IndexedMinHeap(size);
+        }
+
+        void addEdge(int u, int v, int w, int a, int b) {
+            if (edgeCount == from.length) {
+                int capacity = from.length * 2;
+                from = Arrays.copyOf(from, capacity);
+                to = Arrays.copyOf(to, capacity);
+                weight = Arrays.copyOf(weight, capacity);
+                first = Arrays.copyOf(first, capacity);
+                second = Arrays.copyOf(second, capacity);
+            }
+            from[edgeCount] = u;
+            to[edgeCount] = v;
+            weight[edgeCount] = w;
+            first[edgeCount] = a;
+            second[edgeCount] = b;
+            out.get(u).add(edgeCount);
+            in.get(v).add(edgeCount);
+            edgeCount++;
+        }
+
+        void contractAll() {
+            var queue = new IndexedMinHeap(size);
+            for (int id = 0; id < size; id++) {
+                queue.push(id, priority(id));
+            }
+            int order = 0;
+            while (!queue.isEmpty()) {
+                int id = queue.pop();
+                // lazy update: re-queue if the priority got worse
+                int current = priority(id);
+                if (!queue.isEmpty() && current > queue.peekKey()) {
+                    queue.push(id, current);
+                    continue;
+                }
+                contract(id, true);
+                contracted[id] = true;
+                rank[id] = order++;
+                for (int edge : out.get(id)) {
+                    contractedNeighbours[to[edge]]++;
+                }
+                for (int edge : in.get(id)) {
+                    contractedNeighbours[from[edge]]++;
+                }
+            }
+        }
+
+        int priority(int id) {
+            int removed = 0;
+            for (int edge : out.get(id)) {
+                if (!contracted[to[edge]]) {
+                    removed++;
+                }
+            }
+            for (int edge : in.get(id)) {
+                if (!contracted[from[edge]]) {
+                    removed++;
+                }
+            }
+            return contract(id, false) - removed + contractedNeighbours[id];
+        }
+
+        /**
+         * Finds the shortcuts needed to contract {@code id}, adding them
+         * when {@code apply} is set, and returns how many there are.
+         */
+        int contract(int id, boolean apply) {
+            int added = 0;
+            List<Integer> incoming = new ArrayList<>(in.get(id));
+            List<Integer> outgoing = new ArrayList<>(out.get(id));
+            for (int inEdge : incoming) {
+                int u = from[inEdge];
+                if (contracted[u] || u == id) {
+                    continue;
+                }
+                int limit = 0;
+                for (int outEdge : outgoing) {
+                    int x = to[outEdge];
+                    if (!contracted[x] && x != u && x != id) {
+                        limit = Math.max(limit, weight[inEdge] + weight[outEdge]);
+                    }
+                }
+                witnessSearch(u, id, limit);
+                for (int outEdge : outgoing) {
+                    int x = to[outEdge];
+                    if (contracted[x] || x == u || x == id) {
+                        continue;
+                    }
+                    int via = weight[inEdge] + weight[outEdge];
+                    if (witness(x) <= via) {
+                        continue;
+                    }
+                    added++;
+                    if (apply) {
+                        addEdge(u, x, via, inEdge, outEdge);
+                    }
+                    // a parallel edge to x is now covered by this one
+                    witnessMark[x] = witnessEpoch;
+                    witnessCost[x] = via;
+                }
+            }
+            return added;
+        }
+
+        private int witness(int id) {
+            return witnessMark[id] == witnessEpoch ?
+                    witnessCost[id] : Integer.MAX_VALUE;
+        }
+
+        /**
+         * Dijkstra from {@code source} among the stations still in the
+         * graph, never passing {@code skip}, up to {@code limit} minutes
+         * and a fixed number of settled stations.
+         */
+        private void witnessSearch(int source, int skip, int limit) {
+            witnessEpoch++;
+            witnessQueue.clear();
+            witnessMark[source] = witnessEpoch;
+            witnessCost[source] = 0;
+            witnessQueue.push(source, 0);
+            int settled = 0;
+            while (!witnessQueue.isEmpty()
+                    && witnessQueue.peekKey() <= limit
+                    && settled++ < WITNESS_SETTLE_LIMIT) {
+                int id = witnessQueue.pop();
+                for (int edge : out.get(id)) {
+                    int next = to[edge];
+                    if (contracted[next] || next == skip) {
+                        continue;
+                    }
+                    int cost = witnessCost[id] + weight[edge];
+                    if (cost < witness(next)) {
+                        witnessMark[next] = witnessEpoch;
+                        witnessCost[next] = cost;
+                        witnessQueue.push(next, cost);
+                    }
+                }
+            }
+            witnessQueue.clear();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package metro;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Load test of {@link RouteServer} over localhost.
+ * <p>
+ * Usage: {@code HttpLoadTest map.json [requestsPerClient]}. Starts a
+ * server on a free port and replays the same random route queries
+ * with 1, 2, 4, ... concurrent keep-alive clients, up to twice the
+ * number of cores, reporting throughput and client side latency
+ * percentiles for each step.
+ */
+final class HttpLoadTest {
+    private HttpLoadTest() {
+    }
+
+    public static void main(String[] args)
+            throws IOException, InterruptedException, ExecutionException {
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        LinkedHashMap<String, HyperMetro> metroMap;
+        try (var reader = new JsonReader(
+                Files.newBufferedReader(Path.of(args[0])))) {
+            metroMap = MapLoader.load(reader);
+        }
+        MetroGraph.compile(metroMap.values());
+
+        var server = RouteServer.start(metroMap, 0);
+        try {
+            var uris = workload(metroMap, server.getPort(), requests);
+            int cores = Runtime.getRuntime().availableProcessors();
+            System.out.printf("%d cores, %,d requests per client%n",
+                    cores, requests);
+            run(uris, 1, false);
+            for (int clients = 1; clients <= 2 * cores; clients *= 2) {
+                run(uris, clients, true);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static List<URI> workload(Map<String, HyperMetro> metroMap,
+                                      int port,
+                                      int count) {
+        var random = new Random(7);
+        var lines = new ArrayList<>(metroMap.values());
+        List<URI> uris = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            var from = lines.get(random.nextInt(lines.size()));
+            var to = lines.get(random.nextInt(lines.size()));
+            uris.add(URI.create(String.format(
+                    "http://localhost:%d/%s?startLine=%s&startStation=%s"
+                            + "&endLine=%s&endStation=%s",
+                    port,
+                    random.nextBoolean() ? "route" : "fastest-route",
+                    encode(from.getName()), encode(pick(from, random)),
+                    encode(to.getName()), encode(pick(to, random)))));
+        }
+        return uris;
+    }
+
+    /**
+     * Every client sends the whole workload over its own connection;
+     * the results are printed when {@code report} is set.
+     */
+    private static void run(List<URI> uris, int clients, boolean report)
+            throws InterruptedException, ExecutionException {
+        var pool = Executors.newFixedThreadPool(clients);
+        try {
+            long started = System.nanoTime();
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int client = 0; client < clients; client++) {
+                results.add(pool.submit(() -> {
+                    var http = HttpClient.newBuilder()
+                            .version(HttpClient.Version.HTTP_1_1)
+                            .build();
+                    long[] latencies = new long[uris.size()];
+                    for (int i = 0; i < uris.size(); i++) {
+                        long sent = System.nanoTime();
+                        http.send(HttpRequest.newBuilder(uris.get(i)).build(),
+                                HttpResponse.BodyHandlers.discarding());
+                        latencies[i] = System.nanoTime() - sent;
+                    }
+                    return latencies;
+                }));
+            }
+            long[] all = new long[clients * uris.size()];
+            for (int client = 0; client < clients; client++) {
+                System.arraycopy(results.get(client).get(), 0,
+                        all, client * uris.size(), uris.size());
+            }
+            long elapsed = System.nanoTime() - started;
+            if (!report) {
+                return;
+            }
+            Arrays.sort(all);
+            System.out.printf("%3d clients %,12.1f req/s  p50 %,9.1f us  "
+                            + "p99 %,9.1f us%n",
+                    clients,
+                    all.length * 1e9 / elapsed,
+                    all[all.length / 2] / 1e3,
+                    all[(int) Math.ceil(0.99 * all.length) - 1] / 1e3);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static String pick(HyperMetro line, Random random) {
+        var names = line.getStations().stream()
+                .map(HyperMetro.Station::getName)
+                .sorted()
+                .toList();
+        return names.get(random.nextInt(names.size()));
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -1,25 +1,80 @@
 package metro;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
 import java.util.*;
-import java.util.function.*;
 import java.util.stream.Collectors;
 
 public class HyperMetro {
+    private static final int CACHE_SIZE = Integer.getInteger(
+            "metro.cache.size", RouteCache.DEFAULT_CAPACITY);
+    private static final RouteCache<Optional<ArrayList<Station>>>
+            ROUTES = new RouteCache<>(CACHE_SIZE);
+    private static final RouteCache<Optional<Map<Integer, ArrayList<Station>>>>
+            FASTEST_ROUTES = new RouteCache<>(CACHE_SIZE);
+    private static final int[] NO_DEPARTURES = new int[0];
+
+    static {
+        QueryStats.registerCache("/route", ROUTES);
+        QueryStats.registerCache("/fastest-route", FASTEST_ROUTES);
+    }
+
     private final String name;
+    private final int nameId;
+    private final SymbolTable symbols;
     private final HashMap<String, Station> metroMap;
+    private MetroGraph graph;
 
     public HyperMetro(String name) {
-        this.name = name;
+        this(name, new SymbolTable());
+    }
+
+    /**
+     * A line whose line and station names are interned in
+     * {@code symbols}, shared by every line of the map.
+     */
+    HyperMetro(String name, SymbolTable symbols) {
+        this.nameId = symbols.intern(name);
+        this.name = symbols.name(nameId);
+        this.symbols = symbols;
         this.metroMap = new HashMap<>();
     }
 
+    public String getName() {
+        return name;
+    }
+
+    Collection<Station> getStations() {
+        return metroMap.values();
+    }
+
+    Optional<Station> findStation(String stationName) {
+        return Optional.ofNullable(metroMap.get(stationName));
+    }
+
+    private MetroGraph compiledGraph() {
+        if (graph == null) {
+            throw new IllegalStateException(
+                    "Line " + name + " is not part of a compiled network");
+        }
+        return graph;
+    }
+
+    MetroGraph getGraph() {
+        return graph;
+    }
+
+    void setGraph(MetroGraph graph) {
+        this.graph = graph;
+    }
+
     public void createStation(String name,
                               int next) {
+        var station = new Station(symbols.intern(name), next);
         metroMap
-                .put(name, new Station(name, next));
+                .put(station.getName(), station);
     }
 
     public void setNext(String stationName,
@@ -42,6 +97,80 @@ public class HyperMetro {
                 .collect(Collectors.toSet()));
     }
 
+    /**
+     * Times in minutes after midnight at which trains start from a
+     * station towards its next and its previous stations.
+     */
+    void setDepartures(String stationName,
+                       int[] nextTimes,
+                       int[] prevTimes) {
+        var station = metroMap.get(stationName);
+        station.setNextDepartures(nextTimes);
+        station.setPrevDepartures(prevTimes);
+    }
+
+    /**
+     * Minutes from one station of this line to every station of the
+     * network, indexed by station id ({@link Integer#MAX_VALUE} for
+     * stations that can't be reached). One search answers all
+     * destinations.
+     */
+    Optional<int[]> minutesToAll(String stationName) {
+        return findStation(stationName)
+                .filter(station -> graph != null)
+                .map(station -> {
+                    int[] minutes = new int[graph.size()];
+                    graph.shortestPathTree(station.getId(),
+                            minutes, new int[graph.size()]);
+                    return minutes;
+                });
+    }
+
+    /**
+     * Stations reachable from one station of this line within
+     * {@code budget} minutes, with their travel times, nearest first.
+     * The search stops expanding at the budget.
+     */
+    Optional<LinkedHashMap<Station, Integer>> isochrone(String stationName,
+                                                       int budget) {
+        return findStation(stationName)
+                .filter(station -> graph != null)
+                .map(station -> {
+                    int[] minutes = new int[graph.size()];
+                    var reached = graph.shortestPathTree(station.getId(),
+                            budget, minutes, new int[graph.size()]);
+                    LinkedHashMap<Station, Integer> isochrone =
+                            new LinkedHashMap<>();
+                    for (int id : reached) {
+                        isochrone.put(graph.station(id), minutes[id]);
+                    }
+                    return isochrone;
+                });
+    }
+
+    /**
+     * Prints the {@link #isochrone} of a station as one
+     * {@code NAME (LINE) - N minutes} line per station reached.
+     */
+    public static void printIsochrone(HyperMetro metro,
+                                      String stationName,
+                                      int budget) {
+        var out = OutputSink.stdout();
+        var reached = metro.isochrone(stationName, budget);
+        if (reached.isEmpty()) {
+            out.ascii("Invalid command.").newLine();
+            return;
+        }
+        reached.get().forEach((station, minutes) -> {
+            var line = station.line();
+            out.bytes(station.getNameBytes())
+                    .ascii(" (")
+                    .bytes(line.symbols.bytes(line.nameId))
+                    .ascii(") - ").number(minutes)
+                    .ascii(" minutes").newLine();
+        });
+    }
+
     public void addTransfer(String name,
                             HyperMetro other,
                             String transferTo) {
@@ -51,206 +180,319 @@ public class HyperMetro {
                 .add(other.metroMap.get(transferTo));
     }
 
-    private static Optional<ArrayList<Station>> route(HyperMetro metro1,
-                                                      String go,
-                                                      HyperMetro metro2,
-                                                      String stop) {
-        class Route {
-            final Station station;
-            final ArrayList<Station> dirList;
-
-            public Route(Station station,
-                         List<Station> dirList) {
-                this.station = station;
-                this.dirList = new ArrayList<>(dirList);
-                this.dirList.add(station);
-            }
+    static Optional<ArrayList<Station>> route(HyperMetro metro1,
+                                              String go,
+                                              HyperMetro metro2,
+                                              String stop) {
+        var startSt = metro1.findStation(go);
+        var endSt = metro2.findStation(stop);
+        if (startSt.isEmpty() || endSt.isEmpty()) {
+            return Optional.empty();
         }
-        ArrayDeque<Route> queue = new ArrayDeque<>();
-        HashSet<Station> visited = new HashSet<>();
-        var startSt =
-                Optional.ofNullable(metro1.metroMap.get(go));
-        var endSt =
-                Optional.ofNullable(metro2.metroMap.get(stop));
-        if (startSt.isPresent() &&
-                endSt.isPresent()) {
-            queue.add(new Route(
-                    startSt.get(),
-                    new ArrayList<>()));
-            visited.add(startSt.get());
-            visited.addAll(startSt.get().getTransfer());
-            while (!queue.isEmpty()) {
-                var current = queue.pollFirst();
-                if (current.station.equals(endSt.get())) {
-                    return Optional.of(current.dirList);
-                } else {
-                    var currentSt = current.station;
-                    BiConsumer<HashSet<Station>, List<Station>> addStations =
-                            (set, list) ->
-                                    set
-                                            .stream()
-                                            .filter(Predicate.not(visited::contains))
-                                            .forEach(s -> {
-                                                queue.add(new Route(s, list));
-                                                visited.add(s);
-                                                visited.addAll(s.getTransfer());
-                                            });
-                    addStations.accept(currentSt.getNext(),
-                            current.dirList);
-                    addStations.accept(currentSt.getPrevious(),
-                            current.dirList);
-                    if (!currentSt
-                            .getTransfer()
-                            .isEmpty()) {
-                        for (var transfer : currentSt.getTransfer()) {
-                            ArrayList<Station> transferList =
-                                    new ArrayList<>(current.dirList);
-                            transferList.add(transfer);
-                            addStations.accept(transfer.getNext(),
-                                    transferList);
-                            addStations.accept(transfer.getPrevious(),
-                                    transferList);
-                        }
-                    }
-                }
-            }
-        }
-        return Optional.empty();
+        var result = metro1.compiledGraph()
+                .bidirectional(
+                        startSt.get().getId(),
+                        endSt.get().getId(),
+                        true);
+        QueryStats.recordSearch(result);
+        return Optional.ofNullable(result.path());
+    }
+
+    /** Fewest stops route, served from the route cache when possible. */
+    static Optional<ArrayList<Station>> cachedRoute(HyperMetro first,
+                                                    String start,
+                                                    HyperMetro second,
+                                                    String end) {
+        return first.graph == null ?
+                route(first, start, second, end) :
+                ROUTES.get(
+                        new RouteCache.Key(first.name, start,
+                                second.name, end),
+                        first.graph.getVersion(),
+                        key -> route(first, start, second, end));
     }
 
     public static void printRoute(HyperMetro first,
                                   String start,
                                   HyperMetro second,
                                   String end) {
-        var route =
-                route(first, start, second, end);
+        var route = cachedRoute(first, start, second, end);
         if (route.isPresent()) {
             printRoute(route.get());
         } else {
-            System.out.println("No route exists!");
+            OutputSink.stdout().ascii("No route exists!").newLine();
         }
     }
 
     private static void printRoute(List<Station> stList) {
+        writeRoute(stList, OutputSink.stdout());
+    }
+
+    /**
+     * Writes a route to {@code out} as {@link #formatRoute} would
+     * render it, from the pre-encoded name bytes.
+     */
+    static void writeRoute(List<Station> stList, OutputSink out) {
+        var line = stList.get(0).line();
+        for (var station : stList) {
+            if (station.line() != line) {
+                line = station.line();
+                out.ascii("Transition to line ")
+                        .bytes(line.symbols.bytes(line.nameId))
+                        .newLine();
+            }
+            out.bytes(station.getNameBytes()).newLine();
+        }
+    }
+
+    static String formatRoute(List<Station> stList) {
+        var out = new StringBuilder();
         var lineName = stList.get(0).getLineName();
         for (var station : stList) {
             if (!lineName.equals(station.getLineName())) {
-                System.out.printf(
-                        "Transition to line %s%n",
-                        station.getLineName());
+                out.append("Transition to line ")
+                        .append(station.getLineName())
+                        .append(System.lineSeparator());
                 lineName = station.getLineName();
             }
-            System.out.println(station.getName());
+            out.append(station.getName())
+                    .append(System.lineSeparator());
         }
+        return out.toString();
     }
 
-    private static Optional<Map<Integer, ArrayList<Station>>>
+    static String formatTotal(int minutes) {
+        return String.format(
+                "Total: %d minutes in the way%n", minutes);
+    }
+
+    static Optional<Map<Integer, ArrayList<Station>>>
     fastestRoute(
             HyperMetro metro1,
             String go,
             HyperMetro metro2,
             String stop) {
-        class Route {
-            final Station station;
-            final ArrayList<Station> dirList;
-            final int time;
-
-            public Route(Station station,
-                         List<Station> dirList,
-                         int time) {
-                this.station = station;
-                this.dirList = new ArrayList<>(dirList);
-                this.dirList.add(station);
-                this.time = time;
-            }
+        var startSt = metro1.findStation(go);
+        var endSt = metro2.findStation(stop);
+        if (startSt.isEmpty() || endSt.isEmpty()) {
+            return Optional.empty();
         }
-        PriorityQueue<Route> queue = new PriorityQueue<>(
-                Comparator.comparingInt((Route r) -> r.time));
-        HashSet<Station> visited = new HashSet<>();
-        var startSt =
-                Optional.ofNullable(metro1.metroMap.get(go));
-        var endSt =
-                Optional.ofNullable(metro2.metroMap.get(stop));
-        if (startSt.isPresent() &&
-                endSt.isPresent()) {
-            queue.add(new Route(
-                    startSt.get(),
-                    new ArrayList<>(),
-                    0));
-            while (!queue.isEmpty()) {
-                var current = queue.poll();
-                if (current.station.equals(endSt.get())) {
-                    return Optional.of(Collections.singletonMap(
-                            current.time,
-                            current.dirList));
-                } else {
-                    var currentSt = current.station;
-                    visited.add(currentSt);
-                    BiConsumer<HashSet<Station>, Character>
-                            addStations = (set, dir) ->
-                            set
-                                    .stream()
-                                    .filter(Predicate.not(visited::contains))
-                                    .forEach(s -> queue.add(
-                                            new Route(s, current.dirList,
-                                                    current.time +
-                                                            (dir == 't' ?
-                                                                    currentSt.getTransferTime() :
-                                                                    (dir == 'n' ?
-                                                                            currentSt.getNextTime() :
-                                                                            s.getNextTime())))));
-                    addStations.accept(currentSt.getNext(), 'n');
-                    addStations.accept(currentSt.getPrevious(), 'p');
-                    addStations.accept(currentSt.getTransfer(), 't');
-                }
-            }
+        var graph = metro1.compiledGraph();
+        int from = startSt.get().getId();
+        int to = endSt.get().getId();
+        var result = graph.getContractionHierarchy()
+                .map(hierarchy -> hierarchy.fastest(from, to))
+                .or(() -> graph.getLandmarks()
+                        .map(landmarks -> graph.fastest(from, to, landmarks)))
+                .orElseGet(() -> graph.bidirectional(from, to, false));
+        QueryStats.recordSearch(result);
+        if (Boolean.getBoolean("metro.search.report")) {
+            System.err.printf(
+                    "Settled %d stations (plain Dijkstra: %d)%n",
+                    result.settled(),
+                    graph.fastest(from, to).settled());
+        }
+        return result.found() ?
+                Optional.of(Collections.singletonMap(
+                        result.cost(),
+                        result.path())) :
+                Optional.empty();
+    }
+
+    private static Optional<Map<Integer, ArrayList<Station>>>
+    precomputedRoute(
+            TravelTimeMatrix matrix,
+            HyperMetro metro1,
+            String go,
+            HyperMetro metro2,
+            String stop) {
+        var startSt = metro1.findStation(go);
+        var endSt = metro2.findStation(stop);
+        if (startSt.isEmpty() || endSt.isEmpty()) {
+            return Optional.empty();
         }
-        return Optional.empty();
+        int from = startSt.get().getId();
+        int to = endSt.get().getId();
+        return matrix.path(from, to)
+                .map(path -> Collections.singletonMap(
+                        matrix.minutes(from, to), path));
+    }
+
+    /**
+     * Fastest route keyed by its minutes, served from the route cache
+     * or the travel time matrix when possible.
+     */
+    static Optional<Map<Integer, ArrayList<Station>>>
+    cachedFastestRoute(HyperMetro metro1,
+                       String go,
+                       HyperMetro metro2,
+                       String stop) {
+        return metro1.graph == null ?
+                fastestRoute(metro1, go, metro2, stop) :
+                FASTEST_ROUTES.get(
+                        new RouteCache.Key(metro1.name, go,
+                                metro2.name, stop),
+                        metro1.graph.getVersion(),
+                        key -> metro1.graph.getTravelTimes()
+                                .map(matrix -> precomputedRoute(
+                                        matrix, metro1, go, metro2, stop))
+                                .orElseGet(() -> fastestRoute(
+                                        metro1, go, metro2, stop)));
     }
 
     public static void printFastestRoute(HyperMetro metro1,
                                          String go,
                                          HyperMetro metro2,
                                          String stop) {
-        var route =
-                fastestRoute(metro1, go, metro2, stop);
+        var route = cachedFastestRoute(metro1, go, metro2, stop);
         if (route.isPresent()) {
             Map<Integer, ArrayList<Station>> solutionMap =
                     route.get();
             solutionMap.forEach((k, v) ->
             {
                 printRoute(v);
-                System.out.printf(
-                        "Total: %d minutes in the way%n", k);
+                OutputSink.stdout().ascii("Total: ").number(k)
+                        .ascii(" minutes in the way").newLine();
             });
         } else {
-            System.out.println("No route exists!");
+            OutputSink.stdout().ascii("No route exists!").newLine();
+        }
+    }
+
+    /**
+     * Earliest arrival leaving no earlier than {@code departure},
+     * minutes after midnight, riding the scheduled trains.
+     */
+    static Optional<SearchResult> timedRoute(HyperMetro metro1,
+                                             String go,
+                                             HyperMetro metro2,
+                                             String stop,
+                                             int departure) {
+        var startSt = metro1.findStation(go);
+        var endSt = metro2.findStation(stop);
+        var timetable = metro1.compiledGraph().getTimetable();
+        if (startSt.isEmpty() || endSt.isEmpty() || timetable.isEmpty()) {
+            return Optional.empty();
+        }
+        var result = timetable.get().earliestArrival(
+                startSt.get().getId(),
+                endSt.get().getId(),
+                departure);
+        QueryStats.recordSearch(result);
+        return result.found() ? Optional.of(result) : Optional.empty();
+    }
+
+    public static void printTimedRoute(HyperMetro metro1,
+                                       String go,
+                                       HyperMetro metro2,
+                                       String stop,
+                                       int departure) {
+        var out = OutputSink.stdout();
+        var route = timedRoute(metro1, go, metro2, stop, departure);
+        if (route.isPresent()) {
+            printRoute(route.get().path());
+            out.ascii("Total: ").number(route.get().cost() - departure)
+                    .ascii(" minutes in the way").newLine()
+                    .ascii("Arrival at ")
+                    .ascii(Timetable.formatTime(route.get().cost()))
+                    .newLine();
+        } else {
+            out.ascii("No route exists!").newLine();
+        }
+    }
+
+    /**
+     * Prints the departures between {@code from} and {@code until} worth
+     * taking, each with its arrival: those no later train beats.
+     */
+    public static void printProfile(HyperMetro metro1,
+                                    String go,
+                                    HyperMetro metro2,
+                                    String stop,
+                                    int from,
+                                    int until) {
+        var out = OutputSink.stdout();
+        var startSt = metro1.findStation(go);
+        var endSt = metro2.findStation(stop);
+        var timetable = metro1.compiledGraph().getTimetable();
+        var journeys = startSt.isEmpty() || endSt.isEmpty()
+                || timetable.isEmpty() ?
+                Collections.<Integer, Integer>emptySortedMap() :
+                timetable.get().profile(
+                        startSt.get().getId(),
+                        endSt.get().getId(),
+                        from,
+                        until);
+        if (journeys.isEmpty()) {
+            out.ascii("No route exists!").newLine();
+        }
+        journeys.forEach((leave, arrive) -> out
+                .ascii("Leave at ").ascii(Timetable.formatTime(leave))
+                .ascii(", arrive at ").ascii(Timetable.formatTime(arrive))
+                .newLine());
+    }
+
+    /**
+     * Prints every route no other route beats on both minutes and
+     * transfers, fastest first.
+     */
+    public static void printParetoRoutes(HyperMetro metro1,
+                                         String go,
+                                         HyperMetro metro2,
+                                         String stop) {
+        var out = OutputSink.stdout();
+        var startSt = metro1.findStation(go);
+        var endSt = metro2.findStation(stop);
+        var journeys = startSt.isEmpty() || endSt.isEmpty() ?
+                List.<ParetoRoutes.Journey>of() :
+                metro1.compiledGraph().paretoRoutes(
+                        startSt.get().getId(),
+                        endSt.get().getId());
+        if (journeys.isEmpty()) {
+            out.ascii("No route exists!").newLine();
+        }
+        for (var journey : journeys) {
+            printRoute(journey.path());
+            out.ascii("Total: ").number(journey.minutes())
+                    .ascii(" minutes in the way").newLine()
+                    .ascii("Transfers: ").number(journey.transfers())
+                    .newLine();
         }
     }
 
     @Getter
     @Setter
-    private class Station {
+    class Station {
         private final String name;
+        private final int nameId;
         private final HashSet<Station> previous;
         private final HashSet<Station> next;
         private final int nextTime;
         private final HashSet<Station> transfer;
+        private int[] nextDepartures = NO_DEPARTURES;
+        private int[] prevDepartures = NO_DEPARTURES;
+        @Getter(AccessLevel.NONE)
+        private final int hash;
+        private int id = -1;
 
-        private Station(String name, int nextTime) {
-            this.name = name;
+        private Station(int nameId, int nextTime) {
+            this.name = symbols.name(nameId);
+            this.nameId = nameId;
             this.previous = new HashSet<>();
             this.next = new HashSet<>();
             this.transfer = new HashSet<>();
             this.nextTime = nextTime;
+            // from the names, so stations of lines with their own
+            // tables hash alike when their names match
+            this.hash = 31 * HyperMetro.this.name.hashCode()
+                    + name.hashCode();
         }
         public String getLineName() {
             return HyperMetro.this.name;
         }
         @Override
         public int hashCode() {
-            return Objects.hash(HyperMetro.this.name,
-                    this.name);
+            return hash;
         }
         @Override
         public boolean equals(Object o) {
@@ -262,13 +504,25 @@ public class HyperMetro {
             (this.getClass() != o.getClass()) {
                 return false;
             } else {
+                // names are only comparable by id within one table
                 var otherSt = (Station) o;
-                return this
-                        .name.equals(otherSt.name)
-                        && HyperMetro.this
-                        .name.equals(otherSt.getLineName());
+                if (symbols == otherSt.line().symbols) {
+                    return nameId == otherSt.nameId
+                            && HyperMetro.this.nameId
+                            == otherSt.line().nameId;
+                }
+                return hash == otherSt.hash
+                        && name.equals(otherSt.name)
+                        && HyperMetro.this.name
+                        .equals(otherSt.getLineName());
             }
         }
+        private HyperMetro line() {
+            return HyperMetro.this;
+        }
+        byte[] getNameBytes() {
+            return symbols.bytes(nameId);
+        }
         public int getTransferTime() {
             return 5;
         }
@@ -0,0 +1,128 @@
+package metro;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of int ids keyed on int priorities.
+ * <p>
+ * Ids must lie in {@code [0, capacity)}. Keeping the heap position of every id lets {@link #push(int, int)} lower the
+ * key of an id already in the heap instead of inserting a duplicate entry, so the heap never holds more than one entry
+ * per id and no objects are allocated once it is created.
+ */
+class IndexedMinHeap {
+    private final int[] heap;
+    private final int[] keys;
+    private final int[] position;
+
+    private int size;
+
+    IndexedMinHeap(final int capacity) {
+        this.heap = new int[capacity];
+        this.keys = new int[capacity];
+        this.position = new int[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Insert an id or lower its key.
+     * <p>
+     * If the id is not in the heap it is inserted with the given key. If it is, its key is lowered when the new key is
+     * smaller and left untouched otherwise.
+     *
+     * @param id
+     *         id to insert or update
+     * @param key
+     *         priority of the id
+     */
+    void push(final int id, final int key) {
+        int index = position[id];
+        if (index < 0) {
+            index = size++;
+            heap[index] = id;
+            position[id] = index;
+        } else if (key >= keys[id]) {
+            return;
+        }
+        keys[id] = key;
+        siftUp(index);
+    }
+
+    /**
+     * Key of the id at the top of the heap.
+     *
+     * @return the smallest key in the heap
+     */
+    int peekKey() {
+        return keys[heap[0]];
+    }
+
+    /**
+     * Remove the id with the smallest key.
+     *
+     * @return the removed id
+     */
+    int pop() {
+        int top = heap[0];
+        position[top] = -1;
+        if (--size > 0) {
+            heap[0] = heap[size];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /**
+     * Empty the heap so it can be reused for another search.
+     */
+    void clear() {
+        for (int index = 0; index < size; index++) {
+            position[heap[index]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int index) {
+        int id  = heap[index];
+        int key = keys[id];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (keys[heap[parent]] <= key) {
+                break;
+            }
+            heap[index] = heap[parent];
+            position[heap[index]] = index;
+            index = parent;
+        }
+        heap[index] = id;
+        position[id] = index;
+    }
+
+    private void siftDown(int index) {
+        int id  = heap[index];
+        int key = keys[id];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]]) {
+                child++;
+            }
+            if (key <= keys[heap[child]]) {
+                break;
+            }
+            heap[index] = heap[child];
+            position[heap[index]] = index;
+            index = child;
+        }
+        heap[index] = id;
+        position[id] = index;
+    }
+}
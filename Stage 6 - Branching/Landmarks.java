@@ -0,0 +1,156 @@
+package metro;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Landmark travel time tables for A* (the ALT technique).
+ * <p>
+ * For a few landmark stations the minutes from the landmark to every
+ * station and from every station to the landmark are stored. By the
+ * triangle inequality, for any landmark {@code L} the minutes from
+ * {@code v} to {@code t} are at least {@code d(v, L) - d(t, L)} and
+ * {@code d(L, t) - d(L, v)}, which gives A* an admissible and
+ * consistent estimate without station coordinates. Landmarks are picked
+ * one after the other as the station farthest from those picked so
+ * far, so they end up on the edges of the network.
+ */
+final class Landmarks {
+    static final int DEFAULT_COUNT = 8;
+    private static final int MAGIC = 0x4d4c4e44;
+    private static final int FORMAT_VERSION = 1;
+
+    private final int[] ids;
+    private final int[][] from;
+    private final int[][] to;
+
+    private Landmarks(int[] ids, int[][] from, int[][] to) {
+        this.ids = ids;
+        this.from = from;
+        this.to = to;
+    }
+
+    static Landmarks select(MetroGraph graph, int count) {
+        int size = graph.size();
+        count = Math.min(count, size);
+        int[] ids = new int[count];
+        int[][] from = new int[count][size];
+        int[][] to = new int[count][size];
+        int[] nearest = new int[size];
+        Arrays.fill(nearest, Integer.MAX_VALUE);
+        int[] predecessor = new int[size];
+        // the first landmark is the station farthest from station 0
+        graph.shortestPathTree(0, from[0], predecessor);
+        int next = farthest(from[0]);
+        for (int i = 0; i < count; i++) {
+            ids[i] = next;
+            graph.shortestPathTree(next, from[i], predecessor);
+            graph.reverseShortestPathTree(next, to[i]);
+            for (int id = 0; id < size; id++) {
+                nearest[id] = Math.min(nearest[id], from[i][id]);
+            }
+            next = farthest(nearest);
+        }
+        return new Landmarks(ids, from, to);
+    }
+
+    /**
+     * Station with the most minutes in {@code minutes}. Unreachable
+     * stations count as farthest, so every part of a disconnected
+     * network gets a landmark.
+     */
+    private static int farthest(int[] minutes) {
+        int best = 0;
+        for (int id = 1; id < minutes.length; id++) {
+            if (minutes[id] > minutes[best]) {
+                best = id;
+            }
+        }
+        return best;
+    }
+
+    int count() {
+        return ids.length;
+    }
+
+    /**
+     * Lower bound of the minutes from station {@code v} to station
+     * {@code t}.
+     */
+    int lowerBound(int v, int t) {
+        int bound = 0;
+        for (int i = 0; i < ids.length; i++) {
+            int[] toL = to[i];
+            int[] fromL = from[i];
+            if (toL[v] != Integer.MAX_VALUE && toL[t] != Integer.MAX_VALUE) {
+                bound = Math.max(bound, toL[v] - toL[t]);
+            }
+            if (fromL[t] != Integer.MAX_VALUE && fromL[v] != Integer.MAX_VALUE) {
+                bound = Math.max(bound, fromL[t] - fromL[v]);
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Writes the tables, tagged with the graph fingerprint, to
+     * {@code file}.
+     */
+    void save(Path file, MetroGraph graph) throws IOException {
+        try (var out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(graph.fingerprint());
+            out.writeInt(graph.size());
+            out.writeInt(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                out.writeInt(ids[i]);
+                for (int minutes : from[i]) {
+                    out.writeInt(minutes);
+                }
+                for (int minutes : to[i]) {
+                    out.writeInt(minutes);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads tables saved for this graph; empty when the file is missing,
+     * unreadable or was written for a different graph.
+     */
+    static Optional<Landmarks> load(Path file, MetroGraph graph) {
+        if (Files.notExists(file)) {
+            return Optional.empty();
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC
+                    || in.readInt() != FORMAT_VERSION
+                    || in.readLong() != graph.fingerprint()
+                    || in.readInt() != graph.size()) {
+                return Optional.empty();
+            }
+            int count = in.readInt();
+            int[] ids = new int[count];
+            int[][] from = new int[count][graph.size()];
+            int[][] to = new int[count][graph.size()];
+            for (int i = 0; i < count; i++) {
+                ids[i] = in.readInt();
+                for (int id = 0; id < graph.size(); id++) {
+                    from[i][id] = in.readInt();
+                }
+                for (int id = 0; id < graph.size(); id++) {
+                    to[i][id] = in.readInt();
+                }
+            }
+            return Optional.of(new Landmarks(ids, from, to));
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package metro;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets.
+ * <p>
+ * Latencies below {@value #SUB_BUCKETS} ns get a bucket each; above
+ * that every power of two range is split into {@value #SUB_BUCKETS}
+ * buckets of equal width. Percentiles are reported as the middle of
+ * their bucket, which is within about 3% of every latency in it.
+ * Recording is a couple of atomic increments and can be done from any
+ * number of threads.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalNanos = new LongAdder();
+
+    void record(long nanos) {
+        long clamped = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(clamped));
+        totalNanos.add(clamped);
+    }
+
+    /** The power of two range of a latency, and which part of it. */
+    private static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int part = (int) (nanos >>> (exponent - SUB_BITS))
+                & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + part;
+    }
+
+    private static long midpoint(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + ((1L << shift) - 1) / 2;
+    }
+
+    long count() {
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            count += counts.get(bucket);
+        }
+        return count;
+    }
+
+    double meanNanos() {
+        long count = count();
+        return count == 0 ? 0 : (double) totalNanos.sum() / count;
+    }
+
+    /**
+     * Middle of the bucket holding the given fraction of the recorded
+     * latencies, in nanoseconds; 0 when nothing was recorded.
+     */
+    long percentileNanos(double fraction) {
+        long count = count();
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank && seen > 0) {
+                return midpoint(bucket);
+            }
+        }
+        return 0;
+    }
+}
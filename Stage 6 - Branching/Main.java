@@ -1,6 +1,6 @@
 package metro;
 
-import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
 
 import java.io.IOException;
 import java.nio.file.*;
@@ -8,8 +8,25 @@ import java.util.*;
 import java.util.regex.Pattern;
 
 public class Main {
+    private static final Pattern TOKEN =
+            Pattern.compile("([^\"]\\S*|\".+?\")\\s*");
+    private static final Set<String> COMMANDS =
+            Set.of("/route", "/fastest-route", "/pareto-route",
+                    "/isochrone", "/stats");
+    private static final Pattern TIME_RANGE =
+            Pattern.compile("([^-]+)-([^-]+)");
+
     public static void main(String[] args) {
-        loadMap(args[0]).ifPresent(Main::parse);
+        OutputSink.install();
+        if (args.length == 3 && "--batch".equals(args[1])) {
+            loadMap(args[0]).ifPresent(metroMap ->
+                    BatchRunner.run(metroMap, Paths.get(args[2])));
+        } else if (args.length == 3 && "--serve".equals(args[1])) {
+            loadMap(args[0]).ifPresent(metroMap -> serve(metroMap,
+                    Integer.parseInt(args[2])));
+        } else {
+            loadMap(args[0]).ifPresent(Main::parse);
+        }
     }
     private static Optional<LinkedHashMap<String, HyperMetro>>
     loadMap(String path) {
@@ -19,135 +36,213 @@ public class Main {
                     "Error! Such a file doesn't exist!");
             return Optional.empty();
         } else {
-            try {
-                var br =
-                        Files.newBufferedReader(file);
-                var json =
-                        JsonParser
-                                .parseReader(br)
-                                .getAsJsonObject();
-                LinkedHashMap<String, HyperMetro> lineMap =
-                        new LinkedHashMap<>();
-                ArrayList<String[]> transList = new ArrayList<>();
-                for (var obj: json.entrySet()) {
-                    var lineName = obj
-                            .getKey()
-                            .replace("\"", "");
-                    var metro = new HyperMetro(lineName);
-                    ArrayList<Map<String, List<String>>> nextMapList =
-                            new ArrayList<>();
-                    ArrayList<Map<String, List<String>>> prevMapList =
-                            new ArrayList<>();
-                    for (var entObj : obj
-                            .getValue()
-                            .getAsJsonArray()) {
-                        var e =
-                                entObj.getAsJsonObject();
-                        var stationName = e
-                                .getAsJsonPrimitive("name")
-                                .getAsString()
-                                .replace("\"", "");
-                        var timeEntry = e
-                                .getAsJsonPrimitive("time");
-                        var time = timeEntry == null ?
-                                0 : timeEntry.getAsInt();
-                        metro.createStation(stationName, time);
-                        ArrayList<String> nextNames = new ArrayList<>();
-                        for (var nextSt : e.getAsJsonArray("next")) {
-                            nextNames.add(nextSt.getAsString());
-                        }
-                        nextMapList.add(Collections.singletonMap(
-                                stationName, nextNames));
-                        ArrayList<String> prevNames = new ArrayList<>();
-                        for (var prevSt : e.getAsJsonArray("prev")) {
-                            prevNames.add(prevSt.getAsString());
-                        }
-                        prevMapList.add(Collections.singletonMap(
-                                stationName, prevNames));
-                        var transfer = e
-                                .getAsJsonArray("transfer");
-                        for (var el : transfer) {
-                            var transferLine = el
-                                    .getAsJsonObject()
-                                    .get("line")
-                                    .getAsString()
-                                    .replace("\"", "");
-                            var transferSt = el
-                                    .getAsJsonObject()
-                                    .get("station")
-                                    .getAsString()
-                                    .replace("\"", "");
-                            transList.add(new String[]{
-                                    lineName,
-                                    stationName,
-                                    transferLine,
-                                    transferSt});
-                        }
-                    }
-                    for (var map : nextMapList) {
-                        map.forEach(metro::setNext);
-                    }
-                    for (var map : prevMapList) {
-                        map.forEach(metro::setPrev);
-                    }
-                    lineMap.put(lineName, metro);
-                }
-                for (String[] data : transList) {
-                    lineMap
-                            .get(data[0])
-                            .addTransfer(
-                                    data[1],
-                                    lineMap.get(data[2]),
-                                    data[3]);
+            try (var reader = new JsonReader(
+                    Files.newBufferedReader(file))) {
+                var lineMap = MapLoader.load(reader);
+                var graph = MetroGraph.compile(lineMap.values());
+                graph.prepareTimetable();
+                graph.precomputeTravelTimes(Integer.getInteger(
+                        "metro.matrix.maxStations",
+                        TravelTimeMatrix.DEFAULT_MAX_STATIONS));
+                graph.getTravelTimes().ifPresent(matrix ->
+                        QueryStats.recordTable("travel time matrix",
+                                matrix.memoryBytes(), matrix.buildNanos()));
+                if (Boolean.getBoolean("metro.ch")) {
+                    graph.prepareContractionHierarchy();
+                } else {
+                    graph.prepareLandmarks(
+                            Integer.getInteger("metro.landmarks",
+                                    Landmarks.DEFAULT_COUNT),
+                            Paths.get(path + ".landmarks"));
                 }
                 return Optional.of(lineMap);
-            } catch (IOException e) {
+            } catch (IOException | IllegalStateException e) {
                 System.out.println("Incorrect file.");
                 return Optional.empty();
             }
         }
     }
 
+    private static void serve(LinkedHashMap<String, HyperMetro> metroMap,
+                              int port) {
+        try {
+            var server = RouteServer.start(metroMap, port);
+            System.out.printf("Listening on http://localhost:%d%n",
+                    server.getPort());
+        } catch (IOException e) {
+            System.out.println("Can't listen on port " + port + ".");
+        }
+        // the server keeps running, so this can't wait for the exit flush
+        OutputSink.stdout().flush();
+    }
+
     private static void parse(LinkedHashMap<String, HyperMetro> metroMap) {
+        long interval = Long.getLong("metro.stats.interval", 0);
+        if (interval > 0) {
+            QueryStats.dumpEvery(interval);
+        }
+        var out = OutputSink.stdout();
         var sc = new Scanner(System.in);
-        while (true) {
-            var input = sc.nextLine();
-            if ("/exit".equals(input)) {
-                break;
-            } else {
-                List<String> parseList = new ArrayList<>();
-                var m = Pattern
-                        .compile("([^\"]\\S*|\".+?\")\\s*")
-                        .matcher(input);
-                while (m.find())
-                    parseList
-                            .add(m.group(1)
-                                    .replace("\"", ""));
-                var commands = parseList.toArray(String[]::new);
-                if (commands.length == 5 &&
-                        ("/route".equals(commands[0])
-                                || "/fastest-route".equals(commands[0]))
-                        && metroMap.containsKey(commands[1])
-                        && metroMap.containsKey(commands[3])) {
-                    var metro1 = metroMap.get(commands[1]);
-                    var metro2 = metroMap.get(commands[3]);
-                    if ("/route".equals(commands[0])) {
-                        HyperMetro.printRoute(
-                                metro1,
-                                commands[2],
-                                metro2,
-                                commands[4]);
-                    } else {
-                        HyperMetro.printFastestRoute(
-                                metro1,
-                                commands[2],
-                                metro2,
-                                commands[4]);
-                    }
-                } else {
-                    System.out.println("Invalid command.");
+        try {
+            while (true) {
+                var input = sc.nextLine();
+                if ("/exit".equals(input)) {
+                    break;
+                }
+                var commands = tokenize(input);
+                long started = System.nanoTime();
+                long allocated = QueryStats.allocatedBytes();
+                execute(commands, metroMap);
+                QueryStats.recordCommand(
+                        statsName(commands),
+                        System.nanoTime() - started,
+                        QueryStats.allocatedBytes() - allocated);
+                if (!inputPending()) {
+                    out.flush();
                 }
             }
+        } finally {
+            out.flush();
+        }
+    }
+
+    /** Name the latency of a command is recorded under. */
+    private static String statsName(String[] commands) {
+        if (commands.length == 0 || !COMMANDS.contains(commands[0])) {
+            return "invalid";
+        }
+        return commands.length == 7 && "at".equals(commands[5]) ?
+                commands[0] + " at" : commands[0];
+    }
+
+    /**
+     * Whether more input can be read without blocking; output is only
+     * flushed once it can't, so piped commands are answered in chunks.
+     */
+    private static boolean inputPending() {
+        try {
+            return System.in.available() > 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void execute(String[] commands,
+                                LinkedHashMap<String, HyperMetro> metroMap) {
+        if (commands.length > 0 && "/stats".equals(commands[0])) {
+            System.out.print(commands.length > 1
+                    && "json".equals(commands[1]) ?
+                    QueryStats.json() + System.lineSeparator() :
+                    QueryStats.text());
+        } else if (isTimedRouteCommand(commands, metroMap)) {
+            var metro1 = metroMap.get(commands[1]);
+            var metro2 = metroMap.get(commands[3]);
+            var range = TIME_RANGE.matcher(commands[6]);
+            if (range.matches()) {
+                HyperMetro.printProfile(
+                        metro1,
+                        commands[2],
+                        metro2,
+                        commands[4],
+                        Timetable.parseTime(range.group(1)).getAsInt(),
+                        Timetable.parseTime(range.group(2)).getAsInt());
+            } else {
+                HyperMetro.printTimedRoute(
+                        metro1,
+                        commands[2],
+                        metro2,
+                        commands[4],
+                        Timetable.parseTime(commands[6]).getAsInt());
+            }
+        } else if (isIsochroneCommand(commands, metroMap)) {
+            HyperMetro.printIsochrone(
+                    metroMap.get(commands[1]),
+                    commands[2],
+                    Integer.parseInt(commands[3]));
+        } else if (isParetoRouteCommand(commands, metroMap)) {
+            HyperMetro.printParetoRoutes(
+                    metroMap.get(commands[1]),
+                    commands[2],
+                    metroMap.get(commands[3]),
+                    commands[4]);
+        } else if (isRouteCommand(commands, metroMap)) {
+            var metro1 = metroMap.get(commands[1]);
+            var metro2 = metroMap.get(commands[3]);
+            if ("/route".equals(commands[0])) {
+                HyperMetro.printRoute(
+                        metro1,
+                        commands[2],
+                        metro2,
+                        commands[4]);
+            } else {
+                HyperMetro.printFastestRoute(
+                        metro1,
+                        commands[2],
+                        metro2,
+                        commands[4]);
+            }
+        } else {
+            System.out.println("Invalid command.");
+        }
+    }
+
+    static String[] tokenize(String input) {
+        List<String> parseList = new ArrayList<>();
+        var m = TOKEN.matcher(input);
+        while (m.find())
+            parseList
+                    .add(m.group(1)
+                            .replace("\"", ""));
+        return parseList.toArray(String[]::new);
+    }
+
+    static boolean isRouteCommand(String[] commands,
+                                  Map<String, HyperMetro> metroMap) {
+        return commands.length == 5 &&
+                ("/route".equals(commands[0])
+                        || "/fastest-route".equals(commands[0]))
+                && metroMap.containsKey(commands[1])
+                && metroMap.containsKey(commands[3]);
+    }
+
+    static boolean isParetoRouteCommand(String[] commands,
+                                        Map<String, HyperMetro> metroMap) {
+        return commands.length == 5
+                && "/pareto-route".equals(commands[0])
+                && metroMap.containsKey(commands[1])
+                && metroMap.containsKey(commands[3]);
+    }
+
+    /**
+     * {@code /isochrone LINE STATION MINUTES} for every station within
+     * that many minutes.
+     */
+    static boolean isIsochroneCommand(String[] commands,
+                                      Map<String, HyperMetro> metroMap) {
+        return commands.length == 4
+                && "/isochrone".equals(commands[0])
+                && metroMap.containsKey(commands[1])
+                && commands[3].matches("\\d{1,6}");
+    }
+
+    /**
+     * {@code /fastest-route L1 S1 L2 S2 at HH:MM} for the earliest
+     * arrival, or {@code at HH:MM-HH:MM} for every departure worth
+     * taking in that window.
+     */
+    static boolean isTimedRouteCommand(String[] commands,
+                                       Map<String, HyperMetro> metroMap) {
+        if (commands.length != 7
+                || !"/fastest-route".equals(commands[0])
+                || !"at".equals(commands[5])
+                || !metroMap.containsKey(commands[1])
+                || !metroMap.containsKey(commands[3])) {
+            return false;
         }
+        var range = TIME_RANGE.matcher(commands[6]);
+        return range.matches() ?
+                Timetable.parseTime(range.group(1)).isPresent()
+                        && Timetable.parseTime(range.group(2)).isPresent() :
+                Timetable.parseTime(commands[6]).isPresent();
     }
 }
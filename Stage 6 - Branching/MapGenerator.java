@@ -0,0 +1,135 @@
+package metro;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Writes synthetic map files in the Stage 6 format.
+ * <p>
+ * Every line is a chain of stations with optional side branches hanging
+ * off random stations, and a share of the stations get a transfer to a
+ * random station of another line. The same seed always gives the same
+ * map.
+ */
+final class MapGenerator {
+    private final int lines;
+    private final int stationsPerLine;
+    private final int branchesPerLine;
+    private final double transferDensity;
+    private final Random random;
+
+    MapGenerator(int lines,
+                 int stationsPerLine,
+                 int branchesPerLine,
+                 double transferDensity,
+                 long seed) {
+        this.lines = lines;
+        this.stationsPerLine = stationsPerLine;
+        this.branchesPerLine = branchesPerLine;
+        this.transferDensity = transferDensity;
+        this.random = new Random(seed);
+    }
+
+    private static final class GenStation {
+        final String name;
+        final List<String> prev = new ArrayList<>();
+        final List<String> next = new ArrayList<>();
+        final List<String[]> transfer = new ArrayList<>();
+        final int time;
+
+        GenStation(String name, int time) {
+            this.name = name;
+            this.time = time;
+        }
+    }
+
+    static String lineName(int line) {
+        return "Line " + line;
+    }
+
+    void write(Writer out) throws IOException {
+        List<List<GenStation>> network = new ArrayList<>();
+        for (int line = 0; line < lines; line++) {
+            network.add(buildLine(line));
+        }
+        int transfers = (int) (transferDensity
+                * lines * stationsPerLine / 2);
+        for (int i = 0; i < transfers && lines > 1; i++) {
+            int lineA = random.nextInt(lines);
+            int lineB = (lineA + 1 + random.nextInt(lines - 1)) % lines;
+            var stationA = pick(network.get(lineA));
+            var stationB = pick(network.get(lineB));
+            stationA.transfer.add(new String[]{lineName(lineB), stationB.name});
+            stationB.transfer.add(new String[]{lineName(lineA), stationA.name});
+        }
+
+        try (var json = new JsonWriter(out)) {
+            json.beginObject();
+            for (int line = 0; line < lines; line++) {
+                json.name(lineName(line)).beginArray();
+                for (var station : network.get(line)) {
+                    json.beginObject()
+                            .name("name").value(station.name);
+                    writeNames(json.name("prev"), station.prev);
+                    writeNames(json.name("next"), station.next);
+                    json.name("transfer").beginArray();
+                    for (var transfer : station.transfer) {
+                        json.beginObject()
+                                .name("line").value(transfer[0])
+                                .name("station").value(transfer[1])
+                                .endObject();
+                    }
+                    json.endArray()
+                            .name("time").value(station.time)
+                            .endObject();
+                }
+                json.endArray();
+            }
+            json.endObject();
+        }
+    }
+
+    private List<GenStation> buildLine(int line) {
+        List<GenStation> stations = new ArrayList<>();
+        chain(stations, null, "L" + line + " S", stationsPerLine);
+        int trunk = stations.size();
+        for (int branch = 0; branch < branchesPerLine && trunk > 0; branch++) {
+            var root = stations.get(random.nextInt(trunk));
+            chain(stations, root, "L" + line + " B" + branch + " S",
+                    Math.max(1, stationsPerLine / 4));
+        }
+        return stations;
+    }
+
+    private void chain(List<GenStation> stations,
+                       GenStation root,
+                       String prefix,
+                       int length) {
+        var previous = root;
+        for (int i = 0; i < length; i++) {
+            var station = new GenStation(prefix + i, 1 + random.nextInt(9));
+            if (previous != null) {
+                previous.next.add(station.name);
+                station.prev.add(previous.name);
+            }
+            stations.add(station);
+            previous = station;
+        }
+    }
+
+    private GenStation pick(List<GenStation> stations) {
+        return stations.get(random.nextInt(stations.size()));
+    }
+
+    private static void writeNames(JsonWriter json, List<String> names)
+            throws IOException {
+        json.beginArray();
+        for (var name : names) {
+            json.value(name);
+        }
+        json.endArray();
+    }
+}
@@ -0,0 +1,190 @@
+package metro;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Single pass streaming reader for map files.
+ * <p>
+ * Stations are created in {@link HyperMetro} as soon as their object
+ * has been read. Only the names needed to wire links later are kept:
+ * the next and previous names of the current line, until the line is
+ * complete, and the transfer records, until every line exists. No parse
+ * tree of the file is ever built, so peak memory follows the size of
+ * the resulting network. Line and station names go through one
+ * {@link SymbolTable}, so each distinct name is held once.
+ */
+final class MapLoader {
+    private final JsonReader reader;
+    private final LinkedHashMap<String, HyperMetro> lineMap =
+            new LinkedHashMap<>();
+    private final ArrayList<String[]> transList = new ArrayList<>();
+    private final SymbolTable symbols = new SymbolTable();
+    private static final int[][] NO_DEPARTURES = new int[2][0];
+
+    private MapLoader(JsonReader reader) {
+        this.reader = reader;
+    }
+
+    static LinkedHashMap<String, HyperMetro> load(JsonReader reader)
+            throws IOException {
+        var loader = new MapLoader(reader);
+        loader.readLines();
+        for (String[] data : loader.transList) {
+            loader.lineMap
+                    .get(data[0])
+                    .addTransfer(
+                            data[1],
+                            loader.lineMap.get(data[2]),
+                            data[3]);
+        }
+        return loader.lineMap;
+    }
+
+    private void readLines() throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            var lineName = unquote(reader.nextName());
+            var metro = new HyperMetro(lineName, symbols);
+            readStations(metro);
+            lineMap.put(lineName, metro);
+        }
+        reader.endObject();
+    }
+
+    private void readStations(HyperMetro metro) throws IOException {
+        LinkedHashMap<String, List<String>> nextMap = new LinkedHashMap<>();
+        LinkedHashMap<String, List<String>> prevMap = new LinkedHashMap<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String stationName = null;
+            int time = 0;
+            List<String> nextNames = List.of();
+            List<String> prevNames = List.of();
+            List<String[]> transfers = List.of();
+            int[][] departures = NO_DEPARTURES;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name" -> stationName = unquote(reader.nextString());
+                    case "time" -> time = readTime();
+                    case "next" -> nextNames = readNames();
+                    case "prev" -> prevNames = readNames();
+                    case "transfer" -> transfers = readTransfers();
+                    case "departures" -> departures = readDepartures();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (stationName == null) {
+                throw new IllegalStateException(
+                        "Station without a name on line " + metro.getName());
+            }
+            metro.createStation(stationName, time);
+            if (departures != NO_DEPARTURES) {
+                metro.setDepartures(stationName,
+                        departures[0], departures[1]);
+            }
+            nextMap.put(stationName, nextNames);
+            prevMap.put(stationName, prevNames);
+            for (var transfer : transfers) {
+                transList.add(new String[]{
+                        metro.getName(),
+                        stationName,
+                        transfer[0],
+                        transfer[1]});
+            }
+        }
+        reader.endArray();
+        nextMap.forEach(metro::setNext);
+        prevMap.forEach(metro::setPrev);
+    }
+
+    private int readTime() throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+        return reader.nextInt();
+    }
+
+    private List<String> readNames() throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return List.of();
+        }
+        ArrayList<String> names = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            names.add(reader.nextString());
+        }
+        reader.endArray();
+        return names;
+    }
+
+    private List<String[]> readTransfers() throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return List.of();
+        }
+        ArrayList<String[]> transfers = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String line = null;
+            String station = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "line" -> line = unquote(reader.nextString());
+                    case "station" -> station = unquote(reader.nextString());
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+            transfers.add(new String[]{line, station});
+        }
+        reader.endArray();
+        return transfers;
+    }
+
+    /**
+     * Reads {@code {"next": ["HH:MM", ...], "prev": [...]}}, the times
+     * trains start from the station in each direction.
+     */
+    private int[][] readDepartures() throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return NO_DEPARTURES;
+        }
+        int[][] departures = {new int[0], new int[0]};
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "next" -> departures[0] = readTimes();
+                case "prev" -> departures[1] = readTimes();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return departures;
+    }
+
+    private int[] readTimes() throws IOException {
+        var names = readNames();
+        int[] times = new int[names.size()];
+        for (int i = 0; i < times.length; i++) {
+            var name = names.get(i);
+            times[i] = Timetable.parseTime(name)
+                    .orElseThrow(() -> new IllegalStateException(
+                            "Invalid departure time " + name));
+        }
+        return times;
+    }
+
+    private static String unquote(String value) {
+        return value.replace("\"", "");
+    }
+}
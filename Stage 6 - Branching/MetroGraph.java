@@ -0,0 +1,516 @@
+package metro;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiled snapshot of all lines of the network.
+ * <p>
+ * Every station gets a dense int id and the links between stations are
+ * kept in compressed sparse row arrays: the edges of station {@code id}
+ * run from {@code offsets[id]} up to {@code offsets[id + 1]}. Weights
+ * follow {@link HyperMetro#printFastestRoute}: going to a next station
+ * costs the time of the station left, going back costs the time of the
+ * station entered and a transfer costs the transfer time.
+ * <p>
+ * The same edges are also kept transposed, grouped by the station they
+ * lead to, for searches that run backwards from a destination.
+ */
+final class MetroGraph {
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    static final byte NEXT = 0;
+    static final byte PREV = 1;
+    static final byte TRANSFER = 2;
+
+    private final HyperMetro.Station[] stations;
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] weights;
+    private final byte[] kinds;
+    private final int[] reverseOffsets;
+    private final int[] reverseSources;
+    private final int[] reverseWeights;
+    private final byte[] reverseKinds;
+    private final long version = VERSIONS.incrementAndGet();
+    private final ThreadLocal<SearchScratch> scratch =
+            ThreadLocal.withInitial(() ->
+                    new SearchScratch(size(), edgeCount()));
+    private final ThreadLocal<SearchScratch> backwardScratch =
+            ThreadLocal.withInitial(() ->
+                    new SearchScratch(size(), edgeCount()));
+    private TravelTimeMatrix travelTimes;
+    private Landmarks landmarks;
+    private ContractionHierarchy hierarchy;
+    private Timetable timetable;
+    private final ParetoRoutes paretoRoutes = new ParetoRoutes(this);
+
+    private MetroGraph(HyperMetro.Station[] stations,
+                       int[] offsets,
+                       int[] targets,
+                       int[] weights,
+                       byte[] kinds) {
+        this.stations = stations;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.kinds = kinds;
+        this.reverseOffsets = new int[stations.length + 1];
+        this.reverseSources = new int[targets.length];
+        this.reverseWeights = new int[targets.length];
+        this.reverseKinds = new byte[targets.length];
+        for (int target : targets) {
+            reverseOffsets[target + 1]++;
+        }
+        for (int id = 0; id < stations.length; id++) {
+            reverseOffsets[id + 1] += reverseOffsets[id];
+        }
+        int[] fill = Arrays.copyOf(reverseOffsets, stations.length);
+        for (int id = 0; id < stations.length; id++) {
+            for (int edge = offsets[id]; edge < offsets[id + 1]; edge++) {
+                int slot = fill[targets[edge]]++;
+                reverseSources[slot] = id;
+                reverseWeights[slot] = weights[edge];
+                reverseKinds[slot] = kinds[edge];
+            }
+        }
+    }
+
+    /**
+     * Numbers the stations of the lines, builds the adjacency arrays
+     * and attaches the graph to every line.
+     */
+    static MetroGraph compile(Collection<HyperMetro> lines) {
+        ArrayList<HyperMetro.Station> stationList = new ArrayList<>();
+        for (var line : lines) {
+            for (var station : line.getStations()) {
+                station.setId(stationList.size());
+                stationList.add(station);
+            }
+        }
+        int[] offsets = new int[stationList.size() + 1];
+        for (int id = 0; id < stationList.size(); id++) {
+            var station = stationList.get(id);
+            offsets[id + 1] = offsets[id]
+                    + station.getNext().size()
+                    + station.getPrevious().size()
+                    + station.getTransfer().size();
+        }
+        int[] targets = new int[offsets[stationList.size()]];
+        int[] weights = new int[targets.length];
+        byte[] kinds = new byte[targets.length];
+        for (int id = 0; id < stationList.size(); id++) {
+            var station = stationList.get(id);
+            int edge = offsets[id];
+            for (var next : station.getNext()) {
+                targets[edge] = next.getId();
+                weights[edge] = station.getNextTime();
+                kinds[edge++] = NEXT;
+            }
+            for (var prev : station.getPrevious()) {
+                targets[edge] = prev.getId();
+                weights[edge] = prev.getNextTime();
+                kinds[edge++] = PREV;
+            }
+            for (var transfer : station.getTransfer()) {
+                targets[edge] = transfer.getId();
+                weights[edge] = station.getTransferTime();
+                kinds[edge++] = TRANSFER;
+            }
+        }
+        var graph = new MetroGraph(
+                stationList.toArray(HyperMetro.Station[]::new),
+                offsets, targets, weights, kinds);
+        lines.forEach(line -> line.setGraph(graph));
+        return graph;
+    }
+
+    /**
+     * Version of the network this graph was compiled from; every compile
+     * gets a new one, which retires routes cached for older graphs.
+     */
+    long getVersion() {
+        return version;
+    }
+
+    int size() {
+        return stations.length;
+    }
+
+    int edgeCount() {
+        return targets.length;
+    }
+
+    HyperMetro.Station station(int id) {
+        return stations[id];
+    }
+
+    int firstEdge(int id) {
+        return offsets[id];
+    }
+
+    int endEdge(int id) {
+        return offsets[id + 1];
+    }
+
+    int target(int edge) {
+        return targets[edge];
+    }
+
+    int weight(int edge) {
+        return weights[edge];
+    }
+
+    byte kind(int edge) {
+        return kinds[edge];
+    }
+
+    /**
+     * Runs Dijkstra from {@code source} over the whole graph, filling
+     * {@code minutes} with the travel time to every station
+     * ({@link Integer#MAX_VALUE} when unreachable) and
+     * {@code predecessor} with the station before it on the way (-1 for
+     * the source and unreachable stations).
+     */
+    void shortestPathTree(int source,
+                          int[] minutes,
+                          int[] predecessor) {
+        shortestPathTree(source, Integer.MAX_VALUE, minutes, predecessor);
+    }
+
+    /**
+     * Same as {@link #shortestPathTree(int, int[], int[])} but stations
+     * more than {@code budget} minutes away are never queued, so the
+     * search only explores the area within the budget. Returns the ids
+     * of the stations reached, nearest first.
+     */
+    int[] shortestPathTree(int source,
+                           int budget,
+                           int[] minutes,
+                           int[] predecessor) {
+        return dijkstra(source, budget, minutes, predecessor,
+                offsets, targets, weights);
+    }
+
+    /**
+     * Minutes from every station to {@code target}
+     * ({@link Integer#MAX_VALUE} when it can't be reached), found by
+     * one Dijkstra over the transposed edges.
+     */
+    void reverseShortestPathTree(int target, int[] minutes) {
+        dijkstra(target, Integer.MAX_VALUE, minutes, new int[size()],
+                reverseOffsets, reverseSources, reverseWeights);
+    }
+
+    private int[] dijkstra(int source,
+                           int budget,
+                           int[] minutes,
+                           int[] predecessor,
+                           int[] edgeOffsets,
+                           int[] edgeTargets,
+                           int[] edgeWeights) {
+        Arrays.fill(minutes, Integer.MAX_VALUE);
+        Arrays.fill(predecessor, -1);
+        IndexedMinHeap queue = new IndexedMinHeap(size());
+        int[] settled = new int[size()];
+        int count = 0;
+        minutes[source] = 0;
+        queue.push(source, 0);
+        while (!queue.isEmpty()) {
+            int id = queue.pop();
+            settled[count++] = id;
+            for (int edge = edgeOffsets[id];
+                 edge < edgeOffsets[id + 1]; edge++) {
+                int target = edgeTargets[edge];
+                int time = minutes[id] + edgeWeights[edge];
+                if (time <= budget && time < minutes[target]) {
+                    minutes[target] = time;
+                    predecessor[target] = id;
+                    queue.push(target, time);
+                }
+            }
+        }
+        return Arrays.copyOf(settled, count);
+    }
+
+    /**
+     * Route with the fewest stops from {@code source} to {@code target}.
+     * Changing lines does not count as a stop, so the search is a 0-1
+     * BFS: transfers are taken from the front of the deque and line
+     * edges from the back. Runs on the calling thread's reusable
+     * {@link SearchScratch} and stops once the target is settled, so the
+     * only allocation is the result.
+     */
+    SearchResult fewestStops(int source, int target) {
+        var work = scratch.get();
+        int[] deque = work.deque;
+        int head = 0;
+        int tail = 0;
+        int settled = 0;
+        int relaxed = 0;
+        int peak = 1;
+        work.reset();
+        work.reach(source, 0, -1);
+        deque[tail++] = source;
+        while (head != tail) {
+            int id = deque[head];
+            head = (head + 1) % deque.length;
+            if (!work.settle(id)) {
+                continue;
+            }
+            settled++;
+            if (id == target) {
+                return new SearchResult(path(work.predecessor, target),
+                        work.cost[target], settled, relaxed, peak);
+            }
+            int stops = work.cost[id];
+            for (int edge = offsets[id]; edge < offsets[id + 1]; edge++) {
+                relaxed++;
+                int next = targets[edge];
+                boolean transfer = kinds[edge] == TRANSFER;
+                int count = stops + (transfer ? 0 : 1);
+                if (count < work.cost(next)) {
+                    work.reach(next, count, id);
+                    if (transfer) {
+                        head = (head - 1 + deque.length) % deque.length;
+                        deque[head] = next;
+                    } else {
+                        deque[tail] = next;
+                        tail = (tail + 1) % deque.length;
+                    }
+                    peak = Math.max(peak,
+                            (tail - head + deque.length) % deque.length);
+                }
+            }
+        }
+        return SearchResult.notFound(settled, relaxed, peak);
+    }
+
+    /**
+     * Fastest route from {@code source} to {@code target} by plain
+     * Dijkstra, stopping once the target is settled.
+     */
+    SearchResult fastest(int source, int target) {
+        return fastest(source, target, null);
+    }
+
+    /**
+     * Fastest route by A*: stations are queued by minutes so far plus
+     * the landmark lower bound of the minutes still to go, which steers
+     * the search towards the target. Without landmarks this is plain
+     * Dijkstra.
+     */
+    SearchResult fastest(int source, int target, Landmarks landmarks) {
+        var work = scratch.get();
+        var queue = work.heap;
+        int settled = 0;
+        int relaxed = 0;
+        int peak = 1;
+        work.reset();
+        work.reach(source, 0, -1);
+        queue.push(source, 0);
+        while (!queue.isEmpty()) {
+            int id = queue.pop();
+            work.settle(id);
+            settled++;
+            if (id == target) {
+                queue.clear();
+                return new SearchResult(path(work.predecessor, target),
+                        work.cost[target], settled, relaxed, peak);
+            }
+            for (int edge = offsets[id]; edge < offsets[id + 1]; edge++) {
+                relaxed++;
+                int next = targets[edge];
+                int time = work.cost[id] + weights[edge];
+                if (time < work.cost(next)) {
+                    work.reach(next, time, id);
+                    queue.push(next, landmarks == null ? time :
+                            time + landmarks.lowerBound(next, target));
+                    peak = Math.max(peak, queue.size());
+                }
+            }
+        }
+        return SearchResult.notFound(settled, relaxed, peak);
+    }
+
+    /**
+     * Point-to-point search run from both ends at once: forwards from
+     * {@code source} over the edges and backwards from {@code target}
+     * over the transposed edges, always expanding the smaller frontier.
+     * With {@code countStops} every line edge costs one and transfers
+     * cost nothing, as in {@link #fewestStops}; otherwise edges cost
+     * their minutes. The search ends when the two smallest queued costs
+     * add up to at least the best route seen where the searches met, so
+     * the result is exact while each side only explores about half as
+     * far as a one-way search.
+     */
+    SearchResult bidirectional(int source,
+                               int target,
+                               boolean countStops) {
+        var forward = scratch.get();
+        var backward = backwardScratch.get();
+        forward.reset();
+        backward.reset();
+        forward.reach(source, 0, -1);
+        forward.heap.push(source, 0);
+        backward.reach(target, 0, -1);
+        backward.heap.push(target, 0);
+        int best = source == target ? 0 : Integer.MAX_VALUE;
+        int meet = source == target ? source : -1;
+        int settled = 0;
+        int relaxed = 0;
+        int peak = 2;
+        while (!forward.heap.isEmpty() && !backward.heap.isEmpty()
+                && (long) forward.heap.peekKey()
+                + backward.heap.peekKey() < best) {
+            boolean ahead = forward.heap.size() <= backward.heap.size();
+            var side = ahead ? forward : backward;
+            var other = ahead ? backward : forward;
+            int[] sideOffsets = ahead ? offsets : reverseOffsets;
+            int[] sideTargets = ahead ? targets : reverseSources;
+            int[] sideWeights = ahead ? weights : reverseWeights;
+            byte[] sideKinds = ahead ? kinds : reverseKinds;
+            int id = side.heap.pop();
+            side.settle(id);
+            settled++;
+            for (int edge = sideOffsets[id];
+                 edge < sideOffsets[id + 1]; edge++) {
+                relaxed++;
+                int next = sideTargets[edge];
+                int cost = side.cost[id] + (countStops ?
+                        (sideKinds[edge] == TRANSFER ? 0 : 1) :
+                        sideWeights[edge]);
+                if (cost < side.cost(next)) {
+                    side.reach(next, cost, id);
+                    side.heap.push(next, cost);
+                    peak = Math.max(peak, forward.heap.size()
+                            + backward.heap.size());
+                }
+                int otherCost = other.cost(next);
+                if (otherCost != Integer.MAX_VALUE
+                        && side.cost(next) + otherCost < best) {
+                    best = side.cost(next) + otherCost;
+                    meet = next;
+                }
+            }
+        }
+        forward.heap.clear();
+        backward.heap.clear();
+        if (meet < 0) {
+            return SearchResult.notFound(settled, relaxed, peak);
+        }
+        var path = path(forward.predecessor, meet);
+        for (int id = backward.predecessor[meet]; id != -1;
+             id = backward.predecessor[id]) {
+            path.add(stations[id]);
+        }
+        return new SearchResult(path, best, settled, relaxed, peak);
+    }
+
+    /**
+     * Routes trading minutes against transfers, see {@link ParetoRoutes}.
+     */
+    List<ParetoRoutes.Journey> paretoRoutes(int source, int target) {
+        return paretoRoutes.find(source, target);
+    }
+
+    /**
+     * Stations from the source of a search to {@code target}, following
+     * the predecessors filled by {@link #shortestPathTree} or a
+     * point-to-point search.
+     */
+    ArrayList<HyperMetro.Station> path(int[] predecessor, int target) {
+        int length = 0;
+        for (int id = target; id != -1; id = predecessor[id]) {
+            length++;
+        }
+        HyperMetro.Station[] path = new HyperMetro.Station[length];
+        for (int id = target; id != -1; id = predecessor[id]) {
+            path[--length] = stations[id];
+        }
+        return new ArrayList<>(Arrays.asList(path));
+    }
+
+    /**
+     * Builds the all-pairs travel time table when the network has at
+     * most {@code maxStations} stations. Larger networks, and every
+     * network when the limit is 0, keep using the online search.
+     */
+    void precomputeTravelTimes(int maxStations) {
+        travelTimes = size() > 0 && size() <= maxStations ?
+                TravelTimeMatrix.build(this) : null;
+    }
+
+    Optional<TravelTimeMatrix> getTravelTimes() {
+        return Optional.ofNullable(travelTimes);
+    }
+
+    /**
+     * Sets up {@code count} landmarks for A* fastest routes, reading
+     * them from {@code file} when it holds tables for this exact graph
+     * and computing and saving them there otherwise.
+     */
+    void prepareLandmarks(int count, Path file) {
+        if (count <= 0 || size() == 0) {
+            landmarks = null;
+            return;
+        }
+        landmarks = Landmarks.load(file, this)
+                .filter(stored -> stored.count() == count)
+                .orElseGet(() -> {
+                    var computed = Landmarks.select(this, count);
+                    try {
+                        computed.save(file, this);
+                    } catch (IOException e) {
+                        // not being able to cache the tables only costs
+                        // the selection again on the next start
+                    }
+                    return computed;
+                });
+    }
+
+    Optional<Landmarks> getLandmarks() {
+        return Optional.ofNullable(landmarks);
+    }
+
+    /**
+     * Runs the contraction hierarchy preprocessing, after which fastest
+     * routes are answered from the hierarchy.
+     */
+    void prepareContractionHierarchy() {
+        hierarchy = ContractionHierarchy.build(this);
+    }
+
+    Optional<ContractionHierarchy> getContractionHierarchy() {
+        return Optional.ofNullable(hierarchy);
+    }
+
+    /**
+     * Collects the scheduled trips of the stations for earliest arrival
+     * queries; maps without departures get no timetable.
+     */
+    void prepareTimetable() {
+        timetable = Timetable.build(this);
+    }
+
+    Optional<Timetable> getTimetable() {
+        return Optional.ofNullable(timetable);
+    }
+
+    /**
+     * Hash of the station names and edges, used to check that stored
+     * precomputed tables belong to this graph.
+     */
+    long fingerprint() {
+        long hash = 1;
+        for (var station : stations) {
+            hash = 31 * hash + station.getLineName().hashCode();
+            hash = 31 * hash + station.getName().hashCode();
+        }
+        hash = 31 * hash + Arrays.hashCode(offsets);
+        hash = 31 * hash + Arrays.hashCode(targets);
+        return 31 * hash + Arrays.hashCode(weights);
+    }
+}
@@ -0,0 +1,125 @@
+package metro;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered standard output for the command loops.
+ * <p>
+ * Output is rendered into one reusable 64 KiB buffer and written to
+ * the stdout channel when the buffer fills up or {@link #flush()} is
+ * called, which the command loops do once they run out of pending
+ * input. Route printing writes the pre-encoded UTF-8 bytes of the
+ * names directly. {@link Main} calls {@link #install()} first thing,
+ * which points {@link System#out} at the same buffer, so anything
+ * printed the usual way keeps its place in the output.
+ */
+final class OutputSink extends OutputStream {
+    private static final byte[] LINE_SEPARATOR =
+            System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private static final OutputSink STDOUT = new OutputSink(
+            new FileOutputStream(FileDescriptor.out).getChannel());
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+    /**
+     * A sink writing to any channel; {@link #stdout()} is the one the
+     * commands print to.
+     */
+    OutputSink(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /** The sink over standard output. */
+    static OutputSink stdout() {
+        return STDOUT;
+    }
+
+    /**
+     * Points {@link System#out} at the standard output sink and flushes
+     * the sink when the JVM exits. Called once, before anything is
+     * printed, so both kinds of output come out in the order they were
+     * written and none is left in the buffer by {@link System#exit}.
+     */
+    static void install() {
+        System.setOut(new PrintStream(STDOUT, false,
+                StandardCharsets.UTF_8));
+        Runtime.getRuntime().addShutdownHook(new Thread(STDOUT::flush));
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public synchronized void write(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int chunk = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /** Appends ASCII text without encoding it through a charset. */
+    synchronized OutputSink ascii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            write(text.charAt(i));
+        }
+        return this;
+    }
+
+    synchronized OutputSink bytes(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+        return this;
+    }
+
+    /** Appends the decimal digits of a non-negative number. */
+    synchronized OutputSink number(int value) {
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            write('0' + value / divisor % 10);
+        }
+        return this;
+    }
+
+    synchronized OutputSink newLine() {
+        return bytes(LINE_SEPARATOR);
+    }
+
+    @Override
+    public synchronized void flush() {
+        drain();
+    }
+
+    private void drain() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+    }
+}
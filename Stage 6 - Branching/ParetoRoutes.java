@@ -0,0 +1,127 @@
+package metro;
+
+import java.util.*;
+
+/**
+ * Routes that trade minutes against transfers.
+ * <p>
+ * A route is kept when no other route is at least as fast with at most
+ * as many transfers. Every station has one label per number of
+ * transfers up to {@link #MAX_TRANSFERS}, so the label set of a station
+ * is bounded and kept in flat arrays indexed by
+ * {@code station * (MAX_TRANSFERS + 1) + transfers}. Labels are settled
+ * in order of minutes, as in Dijkstra's algorithm, and of transfers
+ * among labels with the same minutes. A label is dropped as
+ * soon as its station, or the destination, already has a settled label
+ * with no more transfers, since that one is also no slower. On a metro
+ * network few transfers ever pay off, so the search settles little more
+ * than a single criterion one does.
+ */
+final class ParetoRoutes {
+    /** Most transfers a route may use. */
+    static final int MAX_TRANSFERS =
+            Integer.getInteger("metro.pareto.maxTransfers", 6);
+
+    private static final int LAYERS = MAX_TRANSFERS + 1;
+
+    private final MetroGraph graph;
+    private final ThreadLocal<Labels> labels;
+
+    /** A route of the trade-off with its minutes and transfers. */
+    record Journey(ArrayList<HyperMetro.Station> path,
+                   int minutes,
+                   int transfers) {
+    }
+
+    ParetoRoutes(MetroGraph graph) {
+        this.graph = graph;
+        this.labels = ThreadLocal.withInitial(() ->
+                new Labels(graph.size()));
+    }
+
+    /**
+     * Every route from {@code source} to {@code target} that no other
+     * route beats on both minutes and transfers, fastest first.
+     */
+    List<Journey> find(int source, int target) {
+        var work = labels.get();
+        work.reset();
+        var queue = work.heap;
+        List<Journey> journeys = new ArrayList<>();
+        int settled = 0;
+        int relaxed = 0;
+        int peak = 1;
+        work.minutes[source * LAYERS] = 0;
+        queue.push(source * LAYERS, 0);
+        while (!queue.isEmpty()) {
+            int label = queue.pop();
+            int id = label / LAYERS;
+            int transfers = label % LAYERS;
+            if (transfers >= work.fewest[id]) {
+                continue;
+            }
+            work.fewest[id] = transfers;
+            settled++;
+            if (id == target) {
+                journeys.add(new Journey(path(work, label),
+                        work.minutes[label], transfers));
+                if (transfers == 0) {
+                    queue.clear();
+                    break;
+                }
+                continue;
+            }
+            for (int edge = graph.firstEdge(id);
+                 edge < graph.endEdge(id); edge++) {
+                relaxed++;
+                int next = graph.target(edge);
+                int nextTransfers = transfers
+                        + (graph.kind(edge) == MetroGraph.TRANSFER ? 1 : 0);
+                if (nextTransfers > MAX_TRANSFERS
+                        || nextTransfers >= work.fewest[next]
+                        || nextTransfers >= work.fewest[target]) {
+                    continue;
+                }
+                int nextLabel = next * LAYERS + nextTransfers;
+                int time = work.minutes[label] + graph.weight(edge);
+                if (time < work.minutes[nextLabel]) {
+                    work.minutes[nextLabel] = time;
+                    work.predecessor[nextLabel] = label;
+                    queue.push(nextLabel, time * LAYERS + nextTransfers);
+                    peak = Math.max(peak, queue.size());
+                }
+            }
+        }
+        QueryStats.recordSearch(settled, relaxed, peak);
+        return journeys;
+    }
+
+    private ArrayList<HyperMetro.Station> path(Labels work, int label) {
+        ArrayDeque<HyperMetro.Station> path = new ArrayDeque<>();
+        for (int step = label; step != -1; step = work.predecessor[step]) {
+            path.addFirst(graph.station(step / LAYERS));
+        }
+        return new ArrayList<>(path);
+    }
+
+    /** Label arrays of one thread, sized to the graph once. */
+    private static final class Labels {
+        final int[] minutes;
+        final int[] predecessor;
+        final int[] fewest;
+        final IndexedMinHeap heap;
+
+        Labels(int stations) {
+            this.minutes = new int[stations * LAYERS];
+            this.predecessor = new int[stations * LAYERS];
+            this.fewest = new int[stations];
+            this.heap = new IndexedMinHeap(stations * LAYERS);
+        }
+
+        void reset() {
+            Arrays.fill(minutes, Integer.MAX_VALUE);
+            Arrays.fill(predecessor, -1);
+            Arrays.fill(fewest, LAYERS);
+        }
+    }
+}
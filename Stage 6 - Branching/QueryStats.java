@@ -0,0 +1,179 @@
+package metro;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide counters for commands and route searches.
+ * <p>
+ * Every command records its latency in a {@link LatencyHistogram} and
+ * the bytes its thread allocated; every search that actually runs
+ * (cache and matrix hits don't) adds the stations it settled, the
+ * edges it scanned and its largest queue. Recording only touches
+ * atomics, so it is safe and cheap from any thread. Route caches are
+ * registered by name and report their hits, misses and size, and
+ * tables precomputed at load time report their memory and build time.
+ * The totals are shown by the {@code /stats} command, or written to stderr
+ * as JSON every {@code metro.stats.interval} seconds.
+ */
+final class QueryStats {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean)
+                    ManagementFactory.getThreadMXBean();
+
+    private record CommandStats(LatencyHistogram latency,
+                                LongAdder allocated) {
+    }
+
+    private record Table(long bytes, long buildNanos) {
+    }
+
+    private static final Map<String, CommandStats> COMMANDS =
+            new ConcurrentSkipListMap<>();
+    private static final Map<String, RouteCache<?>> CACHES =
+            new ConcurrentSkipListMap<>();
+    private static final Map<String, Table> TABLES =
+            new ConcurrentSkipListMap<>();
+    private static final LongAdder SEARCHES = new LongAdder();
+    private static final LongAdder SETTLED = new LongAdder();
+    private static final LongAdder RELAXED = new LongAdder();
+    private static final LongAccumulator QUEUE_PEAK =
+            new LongAccumulator(Math::max, 0);
+
+    private QueryStats() {
+    }
+
+    /** Bytes allocated so far by the calling thread. */
+    static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+
+    static void recordCommand(String command,
+                              long nanos,
+                              long allocated) {
+        var stats = COMMANDS.computeIfAbsent(command,
+                key -> new CommandStats(new LatencyHistogram(),
+                        new LongAdder()));
+        stats.latency().record(nanos);
+        stats.allocated().add(allocated);
+    }
+
+    static void recordSearch(SearchResult result) {
+        recordSearch(result.settled(), result.relaxed(), result.queuePeak());
+    }
+
+    static void recordSearch(int settled, int relaxed, int queuePeak) {
+        SEARCHES.increment();
+        SETTLED.add(settled);
+        RELAXED.add(relaxed);
+        QUEUE_PEAK.accumulate(queuePeak);
+    }
+
+    /** Reports a route cache under {@code name} with the totals. */
+    static void registerCache(String name, RouteCache<?> cache) {
+        CACHES.put(name, cache);
+    }
+
+    /** Reports a table precomputed when the map was loaded. */
+    static void recordTable(String name, long bytes, long buildNanos) {
+        TABLES.put(name, new Table(bytes, buildNanos));
+    }
+
+    static String text() {
+        var out = new StringBuilder();
+        COMMANDS.forEach((command, stats) -> {
+            var latency = stats.latency();
+            long count = latency.count();
+            out.append(String.format(
+                    "%s: %d calls, mean %.1f us, p50 %.1f us, p99 %.1f us, "
+                            + "%d B/call%n",
+                    command, count,
+                    latency.meanNanos() / 1e3,
+                    latency.percentileNanos(0.50) / 1e3,
+                    latency.percentileNanos(0.99) / 1e3,
+                    count == 0 ? 0 : stats.allocated().sum() / count));
+        });
+        CACHES.forEach((name, cache) -> out.append(String.format(
+                "%s cache: %d hits, %d misses, %d entries%n",
+                name, cache.getHits(), cache.getMisses(), cache.size())));
+        TABLES.forEach((name, table) -> out.append(String.format(
+                "%s: %d bytes, built in %.1f ms%n",
+                name, table.bytes(), table.buildNanos() / 1e6)));
+        long searches = SEARCHES.sum();
+        out.append(String.format(
+                "searches: %d, settled %.1f/search, relaxed %.1f/search, "
+                        + "queue peak %d%n",
+                searches,
+                searches == 0 ? 0 : (double) SETTLED.sum() / searches,
+                searches == 0 ? 0 : (double) RELAXED.sum() / searches,
+                QUEUE_PEAK.get()));
+        return out.toString();
+    }
+
+    static String json() {
+        var out = new StringWriter();
+        try (var json = new JsonWriter(out)) {
+            json.beginObject().name("commands").beginObject();
+            for (var entry : COMMANDS.entrySet()) {
+                var latency = entry.getValue().latency();
+                json.name(entry.getKey()).beginObject()
+                        .name("calls").value(latency.count())
+                        .name("meanMicros").value(latency.meanNanos() / 1e3)
+                        .name("p50Micros")
+                        .value(latency.percentileNanos(0.50) / 1e3)
+                        .name("p99Micros")
+                        .value(latency.percentileNanos(0.99) / 1e3)
+                        .name("allocatedBytes")
+                        .value(entry.getValue().allocated().sum())
+                        .endObject();
+            }
+            json.endObject().name("caches").beginObject();
+            for (var entry : CACHES.entrySet()) {
+                var cache = entry.getValue();
+                json.name(entry.getKey()).beginObject()
+                        .name("hits").value(cache.getHits())
+                        .name("misses").value(cache.getMisses())
+                        .name("size").value(cache.size())
+                        .endObject();
+            }
+            json.endObject().name("tables").beginObject();
+            for (var entry : TABLES.entrySet()) {
+                json.name(entry.getKey()).beginObject()
+                        .name("bytes").value(entry.getValue().bytes())
+                        .name("buildMillis")
+                        .value(entry.getValue().buildNanos() / 1e6)
+                        .endObject();
+            }
+            json.endObject().name("searches").beginObject()
+                    .name("count").value(SEARCHES.sum())
+                    .name("settled").value(SETTLED.sum())
+                    .name("relaxed").value(RELAXED.sum())
+                    .name("queuePeak").value(QUEUE_PEAK.get())
+                    .endObject().endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /** Writes {@link #json()} to stderr every {@code seconds}. */
+    static void dumpEvery(long seconds) {
+        var timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            var thread = new Thread(task, "query-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(() -> System.err.println(json()),
+                seconds, seconds, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,194 @@
+package metro;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local HTTP endpoint answering route queries with JSON.
+ * <p>
+ * {@code GET /route} and {@code GET /fastest-route} take the query
+ * parameters {@code startLine}, {@code startStation}, {@code endLine}
+ * and {@code endStation} and answer with the stations of the route and
+ * its stops or minutes, going through the same caches as the
+ * interactive commands. {@code GET /metrics} reports request counts and
+ * latency percentiles per endpoint. The server only listens on the
+ * loopback address; HTTP/1.1 connections are kept alive between
+ * requests.
+ * <p>
+ * Requests run on a fixed pool with one platform thread per core.
+ * Searches keep their working arrays per thread, so a small set of
+ * long-lived threads reuses them instead of allocating them again for
+ * every request.
+ */
+final class RouteServer {
+    private final LinkedHashMap<String, HyperMetro> metroMap;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, LatencyHistogram> latencies =
+            new LinkedHashMap<>();
+
+    private RouteServer(LinkedHashMap<String, HyperMetro> metroMap,
+                        int port) throws IOException {
+        // the JDK server writes headers and body separately; without
+        // TCP_NODELAY each keep-alive response waits for a delayed ACK
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.metroMap = metroMap;
+        this.server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        server.setExecutor(executor);
+        for (var path : List.of("/route", "/fastest-route")) {
+            latencies.put(path, new LatencyHistogram());
+            server.createContext(path, this::handleRoute);
+        }
+        server.createContext("/metrics", this::handleMetrics);
+    }
+
+    /** Starts a server on {@code port}, or any free port for 0. */
+    static RouteServer start(LinkedHashMap<String, HyperMetro> metroMap,
+                             int port) throws IOException {
+        var routeServer = new RouteServer(metroMap, port);
+        routeServer.server.start();
+        return routeServer;
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private void handleRoute(HttpExchange exchange) throws IOException {
+        long started = System.nanoTime();
+        var path = exchange.getHttpContext().getPath();
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, error("Only GET is supported."));
+                return;
+            }
+            var query = parameters(exchange.getRequestURI().getRawQuery());
+            var first = metroMap.get(query.get("startLine"));
+            var second = metroMap.get(query.get("endLine"));
+            var start = query.get("startStation");
+            var end = query.get("endStation");
+            if (first == null || second == null
+                    || start == null || end == null) {
+                send(exchange, 400, error("Invalid command."));
+                return;
+            }
+            var json = "/route".equals(path) ?
+                    HyperMetro.cachedRoute(first, start, second, end)
+                            .map(route -> routeJson(route, "stops",
+                                    route.size() - 1)) :
+                    HyperMetro.cachedFastestRoute(first, start, second, end)
+                            .map(routes -> {
+                                var entry = routes.entrySet()
+                                        .iterator().next();
+                                return routeJson(entry.getValue(),
+                                        "minutes", entry.getKey());
+                            });
+            if (json.isPresent()) {
+                send(exchange, 200, json.get());
+            } else {
+                send(exchange, 404, error("No route exists!"));
+            }
+        } finally {
+            latencies.get(path).record(System.nanoTime() - started);
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            var out = new StringWriter();
+            try (var json = new JsonWriter(out)) {
+                json.beginObject();
+                for (var entry : latencies.entrySet()) {
+                    var histogram = entry.getValue();
+                    json.name(entry.getKey()).beginObject()
+                            .name("requests").value(histogram.count())
+                            .name("meanMicros")
+                            .value(histogram.meanNanos() / 1e3)
+                            .name("p50Micros")
+                            .value(histogram.percentileNanos(0.50) / 1e3)
+                            .name("p99Micros")
+                            .value(histogram.percentileNanos(0.99) / 1e3)
+                            .endObject();
+                }
+                json.endObject();
+            }
+            send(exchange, 200, out.toString());
+        }
+    }
+
+    private static String routeJson(List<HyperMetro.Station> route,
+                                    String totalName,
+                                    int total) {
+        var out = new StringWriter();
+        try (var json = new JsonWriter(out)) {
+            json.beginObject().name("stations").beginArray();
+            for (var station : route) {
+                json.beginObject()
+                        .name("line").value(station.getLineName())
+                        .name("station").value(station.getName())
+                        .endObject();
+            }
+            json.endArray().name(totalName).value(total).endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    private static String error(String message) {
+        var out = new StringWriter();
+        try (var json = new JsonWriter(out)) {
+            json.beginObject().name("error").value(message).endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    private static Map<String, String> parameters(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (var pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(
+                        URLDecoder.decode(pair.substring(0, equals),
+                                StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1),
+                                StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static void send(HttpExchange exchange,
+                             int status,
+                             String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders()
+                .set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}
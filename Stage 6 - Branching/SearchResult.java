@@ -0,0 +1,28 @@
+package metro;
+
+import java.util.ArrayList;
+
+/**
+ * Outcome of a point-to-point search on a {@link MetroGraph}.
+ *
+ * @param path     stations of the route, or null when there is none
+ * @param cost     stops or minutes of the route, depending on the search
+ * @param settled  number of stations the search settled
+ * @param relaxed  number of edges the search scanned
+ * @param queuePeak  largest number of stations queued at once
+ */
+record SearchResult(ArrayList<HyperMetro.Station> path,
+                    int cost,
+                    int settled,
+                    int relaxed,
+                    int queuePeak) {
+
+    static SearchResult notFound(int settled, int relaxed, int queuePeak) {
+        return new SearchResult(null, Integer.MAX_VALUE, settled,
+                relaxed, queuePeak);
+    }
+
+    boolean found() {
+        return path != null;
+    }
+}
@@ -0,0 +1,64 @@
+package metro;
+
+import java.util.Arrays;
+
+/**
+ * Working arrays of one thread for searches on a {@link MetroGraph}.
+ * <p>
+ * The arrays are sized to the graph once and reused by every search of
+ * the thread. A station's entries are only valid when its mark equals
+ * the current epoch, so {@link #reset()} starts a new search without
+ * clearing anything.
+ */
+final class SearchScratch {
+    final int[] cost;
+    final int[] predecessor;
+    final int[] deque;
+    final IndexedMinHeap heap;
+    private final int[] reached;
+    private final int[] settled;
+    private int epoch;
+
+    SearchScratch(int stations, int edges) {
+        this.cost = new int[stations];
+        this.predecessor = new int[stations];
+        this.deque = new int[edges + 1];
+        this.heap = new IndexedMinHeap(stations);
+        this.reached = new int[stations];
+        this.settled = new int[stations];
+    }
+
+    void reset() {
+        heap.clear();
+        if (++epoch == 0) {
+            Arrays.fill(reached, 0);
+            Arrays.fill(settled, 0);
+            epoch = 1;
+        }
+    }
+
+    /**
+     * Cost of a station in the current search,
+     * {@link Integer#MAX_VALUE} when it has not been reached.
+     */
+    int cost(int id) {
+        return reached[id] == epoch ? cost[id] : Integer.MAX_VALUE;
+    }
+
+    void reach(int id, int cost, int predecessor) {
+        reached[id] = epoch;
+        this.cost[id] = cost;
+        this.predecessor[id] = predecessor;
+    }
+
+    /**
+     * Marks a station settled, returning false when it already was.
+     */
+    boolean settle(int id) {
+        if (settled[id] == epoch) {
+            return false;
+        }
+        settled[id] = epoch;
+        return true;
+    }
+}
@@ -0,0 +1,46 @@
+package metro;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Interns line and station names into dense int ids.
+ * <p>
+ * Every distinct name of a map is stored once, however many stations,
+ * links and transfers mention it, and two names are equal exactly when
+ * their ids are. The UTF-8 bytes of each name are encoded once, for
+ * output. Not thread safe; fill it while loading and only read it
+ * afterwards.
+ */
+final class SymbolTable {
+    private final HashMap<String, Integer> ids = new HashMap<>();
+    private final ArrayList<String> names = new ArrayList<>();
+    private final ArrayList<byte[]> bytes = new ArrayList<>();
+
+    /** Id of a name, adding the name if it is new. */
+    int intern(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+            bytes.add(name.getBytes(StandardCharsets.UTF_8));
+        }
+        return id;
+    }
+
+    /** The shared copy of the name with the given id. */
+    String name(int id) {
+        return names.get(id);
+    }
+
+    /** UTF-8 encoding of the name with the given id. */
+    byte[] bytes(int id) {
+        return bytes.get(id);
+    }
+
+    int size() {
+        return names.size();
+    }
+}
@@ -0,0 +1,491 @@
+package metro;
+
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Scheduled trips of the network and earliest arrival search over them.
+ * <p>
+ * A station's {@code departures} in the map lists the times trains
+ * start running from it, towards its next or its previous stations.
+ * Every train runs to the end of the line with the line's travel
+ * times; on a branching line there is one route per branch, each with
+ * all the departures of the station. The routes are kept in flat
+ * route ordered arrays: the stops of route {@code r} are
+ * {@code routeStops[routeOffsets[r]]} up to {@code routeOffsets[r + 1]},
+ * with the minutes from the first stop alongside, and its sorted
+ * departures follow the same scheme. Trains of a route never overtake
+ * each other, so the first train that can still be caught at any stop
+ * is found by binary search.
+ * <p>
+ * Queries run the RAPTOR algorithm: round {@code k} scans every route
+ * serving a station improved in round {@code k - 1}, which gives the
+ * earliest arrivals using at most {@code k} trains, and then walks the
+ * transfers from the stations it improved. Lines without departures are
+ * not served at all. A profile query runs one search per departure in
+ * a time window, in parallel, each thread with its own labels.
+ */
+final class Timetable {
+    /** Most trains a journey may use. */
+    static final int MAX_TRIPS = 8;
+
+    private static final Pattern TIME = Pattern.compile("(\\d{1,2}):(\\d{2})");
+    private static final int UNREACHED = Integer.MAX_VALUE;
+    private static final byte NONE = 0;
+    private static final byte RIDE = 1;
+    private static final byte WALK = 2;
+
+    private final MetroGraph graph;
+    private final int[] routeOffsets;
+    private final int[] routeStops;
+    private final int[] stopMinutes;
+    private final int[] tripOffsets;
+    private final int[] departures;
+    private final int[] servingOffsets;
+    private final int[] servingRoutes;
+    private final int[] servingPositions;
+    private final ThreadLocal<Labels> labels;
+
+    private Timetable(MetroGraph graph,
+                      List<int[]> stops,
+                      List<int[]> minutes,
+                      List<int[]> trips) {
+        this.graph = graph;
+        int routes = stops.size();
+        this.routeOffsets = new int[routes + 1];
+        this.tripOffsets = new int[routes + 1];
+        for (int route = 0; route < routes; route++) {
+            routeOffsets[route + 1] = routeOffsets[route]
+                    + stops.get(route).length;
+            tripOffsets[route + 1] = tripOffsets[route]
+                    + trips.get(route).length;
+        }
+        this.routeStops = new int[routeOffsets[routes]];
+        this.stopMinutes = new int[routeStops.length];
+        this.departures = new int[tripOffsets[routes]];
+        this.servingOffsets = new int[graph.size() + 1];
+        for (int route = 0; route < routes; route++) {
+            System.arraycopy(stops.get(route), 0, routeStops,
+                    routeOffsets[route], stops.get(route).length);
+            System.arraycopy(minutes.get(route), 0, stopMinutes,
+                    routeOffsets[route], minutes.get(route).length);
+            System.arraycopy(trips.get(route), 0, departures,
+                    tripOffsets[route], trips.get(route).length);
+        }
+        for (int stop : routeStops) {
+            servingOffsets[stop + 1]++;
+        }
+        for (int id = 0; id < graph.size(); id++) {
+            servingOffsets[id + 1] += servingOffsets[id];
+        }
+        this.servingRoutes = new int[routeStops.length];
+        this.servingPositions = new int[routeStops.length];
+        int[] fill = Arrays.copyOf(servingOffsets, graph.size());
+        for (int route = 0; route < routes; route++) {
+            for (int at = routeOffsets[route];
+                 at < routeOffsets[route + 1]; at++) {
+                int slot = fill[routeStops[at]]++;
+                servingRoutes[slot] = route;
+                servingPositions[slot] = at - routeOffsets[route];
+            }
+        }
+        this.labels = ThreadLocal.withInitial(() ->
+                new Labels(graph.size(), routes));
+    }
+
+    /**
+     * Collects the routes of every station with departures, or returns
+     * null when the map has no schedule.
+     */
+    static Timetable build(MetroGraph graph) {
+        List<int[]> stops = new ArrayList<>();
+        List<int[]> minutes = new ArrayList<>();
+        List<int[]> trips = new ArrayList<>();
+        var onRoute = new boolean[graph.size()];
+        for (int id = 0; id < graph.size(); id++) {
+            var station = graph.station(id);
+            for (byte kind : new byte[]{MetroGraph.NEXT, MetroGraph.PREV}) {
+                int[] times = kind == MetroGraph.NEXT ?
+                        station.getNextDepartures() :
+                        station.getPrevDepartures();
+                if (times.length == 0) {
+                    continue;
+                }
+                int[] sorted = times.clone();
+                Arrays.sort(sorted);
+                int before = stops.size();
+                branches(graph, kind, new ArrayList<>(List.of(id)),
+                        new ArrayList<>(List.of(0)), onRoute,
+                        stops, minutes);
+                for (int route = before; route < stops.size(); route++) {
+                    trips.add(sorted);
+                }
+            }
+        }
+        return stops.isEmpty() ?
+                null :
+                new Timetable(graph, stops, minutes, trips);
+    }
+
+    /**
+     * Follows the links of one kind from the end of {@code path},
+     * adding a route for every branch; a loop line ends its route just
+     * before it would come round again.
+     */
+    private static void branches(MetroGraph graph,
+                                 byte kind,
+                                 ArrayList<Integer> path,
+                                 ArrayList<Integer> minutes,
+                                 boolean[] onRoute,
+                                 List<int[]> stops,
+                                 List<int[]> routeMinutes) {
+        int last = path.get(path.size() - 1);
+        onRoute[last] = true;
+        boolean extended = false;
+        for (int edge = graph.firstEdge(last);
+             edge < graph.endEdge(last); edge++) {
+            int target = graph.target(edge);
+            if (graph.kind(edge) != kind || onRoute[target]) {
+                continue;
+            }
+            extended = true;
+            path.add(target);
+            minutes.add(minutes.get(minutes.size() - 1)
+                    + graph.weight(edge));
+            branches(graph, kind, path, minutes, onRoute,
+                    stops, routeMinutes);
+            path.remove(path.size() - 1);
+            minutes.remove(minutes.size() - 1);
+        }
+        if (!extended && path.size() > 1) {
+            stops.add(path.stream().mapToInt(Integer::intValue).toArray());
+            routeMinutes.add(minutes.stream()
+                    .mapToInt(Integer::intValue).toArray());
+        }
+        onRoute[last] = false;
+    }
+
+    /**
+     * Earliest arrival at {@code target} leaving {@code source} no
+     * earlier than {@code departure}, in minutes after midnight. The
+     * cost of the result is the arrival time.
+     */
+    SearchResult earliestArrival(int source, int target, int departure) {
+        var scratch = labels.get();
+        scratch.reset();
+        int stations = graph.size();
+        int[] arrivals = scratch.arrivals;
+        int[] best = scratch.best;
+        int settled = 1;
+        int relaxed = 0;
+        int queuePeak = 0;
+
+        arrivals[source] = departure;
+        best[source] = departure;
+        scratch.mark(source);
+        relaxed += walk(scratch, 0, target);
+        settled += scratch.walked;
+
+        for (int round = 1; round <= MAX_TRIPS && scratch.markedCount > 0;
+             round++) {
+            int previous = (round - 1) * stations;
+            int current = round * stations;
+            System.arraycopy(arrivals, previous, arrivals, current,
+                    stations);
+
+            int queuedCount = 0;
+            for (int i = 0; i < scratch.markedCount; i++) {
+                int stop = scratch.markedStops[i];
+                scratch.marked[stop] = false;
+                for (int slot = servingOffsets[stop];
+                     slot < servingOffsets[stop + 1]; slot++) {
+                    int route = servingRoutes[slot];
+                    int position = servingPositions[slot];
+                    if (scratch.queued[route] < 0) {
+                        scratch.queuedRoutes[queuedCount++] = route;
+                        scratch.queued[route] = position;
+                    } else if (position < scratch.queued[route]) {
+                        scratch.queued[route] = position;
+                    }
+                }
+            }
+            scratch.markedCount = 0;
+            queuePeak = Math.max(queuePeak, queuedCount);
+
+            for (int q = 0; q < queuedCount; q++) {
+                int route = scratch.queuedRoutes[q];
+                int first = routeOffsets[route];
+                int trip = -1;
+                int boarded = -1;
+                for (int at = first + scratch.queued[route];
+                     at < routeOffsets[route + 1]; at++) {
+                    int stop = routeStops[at];
+                    relaxed++;
+                    if (trip >= 0) {
+                        int arrival = departures[trip] + stopMinutes[at];
+                        if (arrival < best[stop] && arrival < best[target]) {
+                            arrivals[current + stop] = arrival;
+                            best[stop] = arrival;
+                            scratch.how[current + stop] = RIDE;
+                            scratch.from[current + stop] = boarded;
+                            scratch.route[current + stop] = route;
+                            scratch.mark(stop);
+                            settled++;
+                        }
+                    }
+                    int ready = arrivals[previous + stop];
+                    if (ready != UNREACHED && (trip < 0 || ready
+                            < departures[trip] + stopMinutes[at])) {
+                        int caught = firstTrip(route,
+                                ready - stopMinutes[at]);
+                        if (caught >= 0 && caught != trip) {
+                            trip = caught;
+                            boarded = at;
+                        }
+                    }
+                }
+                scratch.queued[route] = -1;
+            }
+
+            relaxed += walk(scratch, round, target);
+            settled += scratch.walked;
+        }
+
+        if (best[target] == UNREACHED) {
+            return SearchResult.notFound(settled, relaxed, queuePeak);
+        }
+        return new SearchResult(journey(scratch, target), best[target],
+                settled, relaxed, queuePeak);
+    }
+
+    /**
+     * Earliest arrival for every departure from {@code source} between
+     * {@code from} and {@code until}, keeping only the journeys no later
+     * departure arrives as early as. Departures are the times trains
+     * leave the station itself or a station one transfer away, and are
+     * searched in parallel.
+     */
+    SortedMap<Integer, Integer> profile(int source,
+                                        int target,
+                                        int from,
+                                        int until) {
+        var starts = new TreeSet<Integer>();
+        addDepartures(source, 0, from, until, starts);
+        for (int edge = graph.firstEdge(source);
+             edge < graph.endEdge(source); edge++) {
+            if (graph.kind(edge) == MetroGraph.TRANSFER) {
+                addDepartures(graph.target(edge), graph.weight(edge),
+                        from, until, starts);
+            }
+        }
+        int[] times = starts.stream().mapToInt(Integer::intValue).toArray();
+        int[] arrivals = new int[times.length];
+        IntStream.range(0, times.length)
+                .parallel()
+                .forEach(i -> {
+                    var result = earliestArrival(source, target, times[i]);
+                    QueryStats.recordSearch(result);
+                    arrivals[i] = result.cost();
+                });
+        SortedMap<Integer, Integer> journeys = new TreeMap<>();
+        int earliest = UNREACHED;
+        for (int i = times.length - 1; i >= 0; i--) {
+            if (arrivals[i] < earliest) {
+                earliest = arrivals[i];
+                journeys.put(times[i], arrivals[i]);
+            }
+        }
+        return journeys;
+    }
+
+    private void addDepartures(int stop,
+                               int walk,
+                               int from,
+                               int until,
+                               Set<Integer> starts) {
+        for (int slot = servingOffsets[stop];
+             slot < servingOffsets[stop + 1]; slot++) {
+            int route = servingRoutes[slot];
+            int offset = stopMinutes[routeOffsets[route]
+                    + servingPositions[slot]] - walk;
+            for (int trip = tripOffsets[route];
+                 trip < tripOffsets[route + 1]; trip++) {
+                int start = departures[trip] + offset;
+                if (start >= from && start <= until) {
+                    starts.add(start);
+                }
+            }
+        }
+    }
+
+    /**
+     * Index into {@link #departures} of the first train of the route
+     * leaving its first stop at {@code earliest} or later, or -1.
+     */
+    private int firstTrip(int route, int earliest) {
+        int low = tripOffsets[route];
+        int high = tripOffsets[route + 1];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (departures[middle] < earliest) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low < tripOffsets[route + 1] ? low : -1;
+    }
+
+    /**
+     * Walks the transfers from the stations marked in {@code round},
+     * marking the stations improved by it as well. A station reached on
+     * foot is walked on from, as a search over the static graph would
+     * chain transfers, and walked from again if a later transfer
+     * reaches it earlier. Returns the number of transfers scanned.
+     */
+    private int walk(Labels scratch, int round, int target) {
+        int offset = round * graph.size();
+        int stations = graph.size();
+        int head = 0;
+        int size = 0;
+        for (int i = 0; i < scratch.markedCount; i++) {
+            int stop = scratch.markedStops[i];
+            scratch.walkQueue[size++] = stop;
+            scratch.walking[stop] = true;
+        }
+        int scanned = 0;
+        scratch.walked = 0;
+        while (size > 0) {
+            int stop = scratch.walkQueue[head];
+            head = (head + 1) % stations;
+            size--;
+            scratch.walking[stop] = false;
+            for (int edge = graph.firstEdge(stop);
+                 edge < graph.endEdge(stop); edge++) {
+                if (graph.kind(edge) != MetroGraph.TRANSFER) {
+                    continue;
+                }
+                scanned++;
+                int next = graph.target(edge);
+                int arrival = scratch.arrivals[offset + stop]
+                        + graph.weight(edge);
+                if (arrival < scratch.best[next]
+                        && arrival < scratch.best[target]) {
+                    scratch.arrivals[offset + next] = arrival;
+                    scratch.best[next] = arrival;
+                    scratch.how[offset + next] = WALK;
+                    scratch.from[offset + next] = stop;
+                    scratch.mark(next);
+                    scratch.walked++;
+                    if (!scratch.walking[next]) {
+                        scratch.walking[next] = true;
+                        scratch.walkQueue[(head + size++) % stations] = next;
+                    }
+                }
+            }
+        }
+        return scanned;
+    }
+
+    /** Stations of the journey to {@code target}, from the labels. */
+    private ArrayList<HyperMetro.Station> journey(Labels scratch,
+                                                  int target) {
+        int stations = graph.size();
+        int round = MAX_TRIPS;
+        int stop = target;
+        ArrayDeque<HyperMetro.Station> path = new ArrayDeque<>();
+        while (true) {
+            while (round > 0 && scratch.how[round * stations + stop] == NONE) {
+                round--;
+            }
+            int label = round * stations + stop;
+            if (scratch.how[label] == RIDE) {
+                int route = scratch.route[label];
+                int at = routeOffsets[route];
+                while (routeStops[at] != stop) {
+                    at++;
+                }
+                for (; at > scratch.from[label]; at--) {
+                    path.addFirst(graph.station(routeStops[at]));
+                }
+                stop = routeStops[at];
+                round--;
+            } else if (scratch.how[label] == WALK) {
+                path.addFirst(graph.station(stop));
+                stop = scratch.from[label];
+            } else {
+                path.addFirst(graph.station(stop));
+                return new ArrayList<>(path);
+            }
+        }
+    }
+
+    /**
+     * Minutes after midnight for a time written {@code HH:MM}; hours
+     * past 23 stand for times after midnight of the next day.
+     */
+    static OptionalInt parseTime(String time) {
+        var matcher = TIME.matcher(time);
+        if (!matcher.matches() || Integer.parseInt(matcher.group(2)) > 59) {
+            return OptionalInt.empty();
+        }
+        return OptionalInt.of(Integer.parseInt(matcher.group(1)) * 60
+                + Integer.parseInt(matcher.group(2)));
+    }
+
+    static String formatTime(int minutes) {
+        return String.format("%02d:%02d", minutes / 60 % 24, minutes % 60);
+    }
+
+    /**
+     * Labels of one thread, sized to the timetable once. Arrivals and
+     * how they were reached are kept for every round, so a journey can
+     * be traced back through the trains it used.
+     */
+    private static final class Labels {
+        final int[] best;
+        final int[] arrivals;
+        final byte[] how;
+        final int[] from;
+        final int[] route;
+        final boolean[] marked;
+        final int[] markedStops;
+        final int[] queued;
+        final int[] queuedRoutes;
+        final int[] walkQueue;
+        final boolean[] walking;
+        int markedCount;
+        int walked;
+
+        Labels(int stations, int routes) {
+            this.best = new int[stations];
+            this.arrivals = new int[(MAX_TRIPS + 1) * stations];
+            this.how = new byte[arrivals.length];
+            this.from = new int[arrivals.length];
+            this.route = new int[arrivals.length];
+            this.marked = new boolean[stations];
+            this.markedStops = new int[stations];
+            this.queued = new int[routes];
+            this.queuedRoutes = new int[routes];
+            this.walkQueue = new int[stations];
+            this.walking = new boolean[stations];
+            Arrays.fill(queued, -1);
+        }
+
+        void reset() {
+            Arrays.fill(best, UNREACHED);
+            Arrays.fill(arrivals, UNREACHED);
+            Arrays.fill(how, NONE);
+            Arrays.fill(marked, false);
+            markedCount = 0;
+        }
+
+        void mark(int stop) {
+            if (!marked[stop]) {
+                marked[stop] = true;
+                markedStops[markedCount++] = stop;
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package metro;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Precomputed travel times between every pair of stations.
+ * <p>
+ * One Dijkstra search is run from each station, in parallel across
+ * cores, keeping the minutes row and the predecessor row of every
+ * search. A fastest route is then read back by following predecessors
+ * from the destination, which costs only the length of the route.
+ * Memory grows with the square of the station count, about 16 MB at
+ * 1000 stations, so the table is only built when asked for with
+ * {@code -Dmetro.matrix.maxStations}, and then only for networks up to
+ * that size.
+ */
+final class TravelTimeMatrix {
+    /** No table unless a size limit is configured. */
+    static final int DEFAULT_MAX_STATIONS = 0;
+
+    private final MetroGraph graph;
+    private final int[][] minutes;
+    private final int[][] predecessor;
+    private final long buildNanos;
+
+    private TravelTimeMatrix(MetroGraph graph,
+                             int[][] minutes,
+                             int[][] predecessor,
+                             long buildNanos) {
+        this.graph = graph;
+        this.minutes = minutes;
+        this.predecessor = predecessor;
+        this.buildNanos = buildNanos;
+    }
+
+    static TravelTimeMatrix build(MetroGraph graph) {
+        long started = System.nanoTime();
+        int size = graph.size();
+        int[][] minutes = new int[size][size];
+        int[][] predecessor = new int[size][size];
+        IntStream.range(0, size)
+                .parallel()
+                .forEach(source -> graph.shortestPathTree(
+                        source,
+                        minutes[source],
+                        predecessor[source]));
+        return new TravelTimeMatrix(graph, minutes, predecessor,
+                System.nanoTime() - started);
+    }
+
+    /**
+     * Travel time in minutes, or {@link Integer#MAX_VALUE} when there is
+     * no route.
+     */
+    int minutes(int from, int to) {
+        return minutes[from][to];
+    }
+
+    /**
+     * Stations of the fastest route from one station to another, empty
+     * when there is no route.
+     */
+    Optional<ArrayList<HyperMetro.Station>> path(int from, int to) {
+        if (minutes[from][to] == Integer.MAX_VALUE) {
+            return Optional.empty();
+        }
+        int[] row = predecessor[from];
+        int length = 1;
+        for (int id = to; id != from; id = row[id]) {
+            length++;
+        }
+        HyperMetro.Station[] path = new HyperMetro.Station[length];
+        for (int id = to; length > 0; id = row[id]) {
+            path[--length] = graph.station(id);
+        }
+        return Optional.of(new ArrayList<>(Arrays.asList(path)));
+    }
+
+    /**
+     * Approximate heap taken by the two tables, in bytes.
+     */
+    long memoryBytes() {
+        long size = minutes.length;
+        // 16 byte header per row array plus 4 bytes per cell, two tables
+        return 2 * (size * (16 + 4 * size) + 16 + 4 * size);
+    }
+
+    long buildNanos() {
+        return buildNanos;
+    }
+}
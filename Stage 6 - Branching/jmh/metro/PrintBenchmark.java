@@ -0,0 +1,92 @@
+package metro;
+
+import com.google.gson.stream.JsonReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Route printing as the commands do it, through an {@link OutputSink}
+ * whose channel drops the bytes, next to the string rendering the
+ * batch runner uses. Run with the gc profiler to see the allocations
+ * per route.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PrintBenchmark {
+    private static final int ROUTES = 256;
+
+    @Param({"20"})
+    int lines;
+
+    @Param({"50"})
+    int stations;
+
+    private final OutputSink out = new OutputSink(
+            Channels.newChannel(OutputStream.nullOutputStream()));
+    private final List<ArrayList<HyperMetro.Station>> routes =
+            new ArrayList<>();
+    private int next;
+
+    @Setup
+    public void load() throws IOException {
+        var json = new StringWriter();
+        new MapGenerator(lines, stations, 2, 0.1, 42).write(json);
+        var lineMap = MapLoader.load(
+                new JsonReader(new StringReader(json.toString())));
+        MetroGraph.compile(lineMap.values());
+
+        // a map without connected pairs would never fill the list
+        var random = new Random(7);
+        var lineList = new ArrayList<>(lineMap.values());
+        for (int attempt = 0; attempt < 16 * ROUTES
+                && routes.size() < ROUTES; attempt++) {
+            var from = lineList.get(random.nextInt(lineList.size()));
+            var to = lineList.get(random.nextInt(lineList.size()));
+            HyperMetro.route(from, pick(from, random), to, pick(to, random))
+                    .ifPresent(routes::add);
+        }
+        if (routes.isEmpty()) {
+            throw new IllegalStateException(
+                    "no two stations of the map are connected");
+        }
+    }
+
+    @Benchmark
+    public OutputSink printRoute() {
+        HyperMetro.writeRoute(nextRoute(), out);
+        return out;
+    }
+
+    @Benchmark
+    public String formatRoute() {
+        return HyperMetro.formatRoute(nextRoute());
+    }
+
+    private ArrayList<HyperMetro.Station> nextRoute() {
+        next = (next + 1) % routes.size();
+        return routes.get(next);
+    }
+
+    private static String pick(HyperMetro line, Random random) {
+        var names = line.getStations().stream()
+                .map(HyperMetro.Station::getName)
+                .sorted()
+                .toList();
+        return names.get(random.nextInt(names.size()));
+    }
+}
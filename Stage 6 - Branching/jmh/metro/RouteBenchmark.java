@@ -0,0 +1,103 @@
+package metro;
+
+import com.google.gson.stream.JsonReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Map loading, {@link HyperMetro#route} and
+ * {@link HyperMetro#fastestRoute} on a generated map. Sample time mode
+ * reports the latency percentiles of each call, and the gc profiler its
+ * allocations. The queries cycle through a fixed set of random station
+ * pairs, so every fork searches the same routes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RouteBenchmark {
+    private static final int QUERIES = 256;
+
+    @Param({"20"})
+    int lines;
+
+    @Param({"50"})
+    int stations;
+
+    @Param({"2"})
+    int branches;
+
+    @Param({"0.1"})
+    double transferDensity;
+
+    private record Query(HyperMetro from, String go,
+                         HyperMetro to, String stop) {
+    }
+
+    private String json;
+    private final Query[] workload = new Query[QUERIES];
+    private int next;
+
+    @Setup
+    public void generate() throws IOException {
+        var out = new StringWriter();
+        new MapGenerator(lines, stations, branches, transferDensity, 42)
+                .write(out);
+        json = out.toString();
+        var lineMap = load();
+        MetroGraph.compile(lineMap.values());
+
+        var random = new Random(7);
+        var lineList = new ArrayList<>(lineMap.values());
+        for (int i = 0; i < QUERIES; i++) {
+            var from = lineList.get(random.nextInt(lineList.size()));
+            var to = lineList.get(random.nextInt(lineList.size()));
+            workload[i] = new Query(from, pick(from, random),
+                    to, pick(to, random));
+        }
+    }
+
+    @Benchmark
+    public LinkedHashMap<String, HyperMetro> load() throws IOException {
+        try (var reader = new JsonReader(new StringReader(json))) {
+            return MapLoader.load(reader);
+        }
+    }
+
+    @Benchmark
+    public Optional<ArrayList<HyperMetro.Station>> route() {
+        var q = nextQuery();
+        return HyperMetro.route(q.from(), q.go(), q.to(), q.stop());
+    }
+
+    @Benchmark
+    public Optional<Map<Integer, ArrayList<HyperMetro.Station>>>
+    fastestRoute() {
+        var q = nextQuery();
+        return HyperMetro.fastestRoute(q.from(), q.go(), q.to(), q.stop());
+    }
+
+    private Query nextQuery() {
+        next = (next + 1) % QUERIES;
+        return workload[next];
+    }
+
+    private static String pick(HyperMetro line, Random random) {
+        var names = line.getStations().stream()
+                .map(HyperMetro.Station::getName)
+                .sorted()
+                .toList();
+        return names.get(random.nextInt(names.size()));
+    }
+}